@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sdnlab.routingrest;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Events a subscriber is interested in. An unset criterion accepts everything.
+ * The devices criterion keeps the events about one of the devices, including the links ending
+ * on them, the hosts attached to them and the routes through them, the host prefixes only restrict
+ * the host events.
+ */
+final class EventFilter {
+    static final Set<String> TYPES = ImmutableSet.of("topology", "device", "host", "route");
+
+    static final EventFilter ALL = new EventFilter(null, null, null);
+
+    private static final Splitter COMMA = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    @Nullable
+    final Set<String> types;
+    @Nullable
+    final Set<String> devices;
+    @Nullable
+    final List<String> hostPrefixes;
+
+    private EventFilter(@Nullable Set<String> types, @Nullable Set<String> devices,
+            @Nullable List<String> hostPrefixes) {
+        this.types = types;
+        this.devices = devices;
+        this.hostPrefixes = hostPrefixes;
+    }
+
+    /**
+     * Parses the comma separated query parameters of a subscription.
+     *
+     * @param types event names, null for all
+     * @param devices device ids, null for all
+     * @param hosts host id prefixes, null for all
+     * @return filter
+     * @throws IllegalArgumentException an event name is unknown
+     */
+    static EventFilter parse(@Nullable String types, @Nullable String devices, @Nullable String hosts) {
+        Set<String> typeSet = types != null ? ImmutableSet.copyOf(COMMA.split(types)) : null;
+        if (typeSet != null) {
+            for (String type : typeSet) {
+                checkArgument(TYPES.contains(type), "Unknown event type %s, expected one of %s", type, TYPES);
+            }
+        }
+        Set<String> deviceSet = devices != null ? ImmutableSet.copyOf(COMMA.split(devices)) : null;
+        List<String> prefixes = hosts != null ? ImmutableList.copyOf(COMMA.split(hosts)) : null;
+        if (typeSet == null && deviceSet == null && prefixes == null) {
+            return ALL;
+        }
+        return new EventFilter(typeSet, deviceSet, prefixes);
+    }
+
+    boolean acceptsType(String type) {
+        return types == null || types.contains(type);
+    }
+
+    /**
+     * Selects the parts of a message matching the filter.
+     *
+     * @param message event
+     * @return matching parts, the message parts themselves when they all match
+     */
+    List<EventMessage.Part> select(EventMessage message) {
+        if (!acceptsType(message.name)) {
+            return Collections.emptyList();
+        }
+        if (devices == null && hostPrefixes == null) {
+            return message.parts;
+        }
+        List<EventMessage.Part> selected = new ArrayList<>(message.parts.size());
+        for (EventMessage.Part part : message.parts) {
+            if (matches(part)) {
+                selected.add(part);
+            }
+        }
+        return selected.size() == message.parts.size() ? message.parts : selected;
+    }
+
+    private boolean matches(EventMessage.Part part) {
+        if (devices != null && Collections.disjoint(devices, part.devices)) {
+            return false;
+        }
+        if (hostPrefixes != null && part.host != null) {
+            return hostPrefixes.stream().anyMatch(part.host::startsWith);
+        }
+        return true;
+    }
+}
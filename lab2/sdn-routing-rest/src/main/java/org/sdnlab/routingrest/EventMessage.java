@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sdnlab.routingrest;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.glassfish.jersey.media.sse.OutboundEvent;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Serialized event shared by all the subscribers.
+ * Besides the SSE event, it keeps the json of every subject it is about, so the subscribers
+ * filtering or batching their events assemble them without serializing again.
+ */
+final class EventMessage {
+    final long id;
+    final String name;
+    // the data is a list with one element per part, instead of the single part
+    final boolean isList;
+    final OutboundEvent event;
+    final List<Part> parts;
+
+    static final class Part {
+        // e.g. "device:of:0000000000000001", unique across the event names
+        final String subject;
+        // json of the element
+        final String data;
+        // devices the element is about
+        final Set<String> devices;
+        @Nullable
+        final String host;
+
+        Part(String subject, String data, Set<String> devices, @Nullable String host) {
+            this.subject = subject;
+            this.data = data;
+            this.devices = ImmutableSet.copyOf(devices);
+            this.host = host;
+        }
+    }
+
+    EventMessage(long id, String name, boolean isList, List<Part> parts) {
+        this.id = id;
+        this.name = name;
+        this.isList = isList;
+        this.parts = ImmutableList.copyOf(parts);
+        this.event = event(parts);
+    }
+
+    /**
+     * Builds the event carrying only some of the parts.
+     *
+     * @param selected parts of this message
+     * @return SSE event with the id and name of this message
+     */
+    OutboundEvent event(List<Part> selected) {
+        return new OutboundEvent.Builder()
+                .name(name)
+                .id(Long.toString(id))
+                .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                .data(json(selected))
+                .build();
+    }
+
+    /**
+     * Gets the data of the event carrying only some of the parts.
+     *
+     * @param selected parts of this message
+     * @return json data
+     */
+    String json(List<Part> selected) {
+        if (!isList) {
+            return selected.get(0).data;
+        }
+        return selected.stream().map(part -> part.data).collect(Collectors.joining(",", "[", "]"));
+    }
+}
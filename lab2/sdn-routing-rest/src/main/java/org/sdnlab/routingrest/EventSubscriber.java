@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sdnlab.routingrest;
+
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * SSE client with its own bounded queue, written by the shared writer threads.
+ * At most one writer drains a subscriber at a time, so the events keep their order.
+ * With a coalescing window, the events are held for the window and sent as one "batch" event
+ * keeping only the latest state of each subject.
+ * Only the events, or the elements of list events, accepted by its filter are sent.
+ * A write blocked for longer than the write timeout, a client that stopped reading,
+ * closes the subscriber and gives the writer thread back to the other subscribers.
+ */
+final class EventSubscriber {
+    private static final Logger log = LoggerFactory.getLogger(EventSubscriber.class);
+
+    private final EventOutput output;
+    private final EventFilter filter;
+    private final BlockingQueue<OutboundEvent> queue;
+    private final Executor writers;
+
+    private final long window;
+    private final ScheduledExecutorService timer;
+
+    private final long writeTimeout;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    // guarded by this, the writer thread blocked in a write and since when (nanoTime)
+    private Thread writing;
+    private long writeStart;
+
+    // guarded by pending, batch entry with the latest state of every subject changed during the window
+    private final Map<String, String> pending = new LinkedHashMap<>();
+    private long pendingId;
+
+    EventSubscriber(EventOutput output, EventFilter filter, int capacity, Executor writers, long writeTimeout,
+            long window, ScheduledExecutorService timer) {
+        this.output = output;
+        this.filter = filter;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writers = writers;
+        this.writeTimeout = TimeUnit.MILLISECONDS.toNanos(writeTimeout);
+        this.window = window;
+        this.timer = timer;
+    }
+
+    EventFilter filter() {
+        return filter;
+    }
+
+    /**
+     * Gets the event to send for a message, with the parts accepted by the filter.
+     *
+     * @param message event
+     * @return SSE event, or null if nothing matches
+     */
+    OutboundEvent select(EventMessage message) {
+        List<EventMessage.Part> parts = filter.select(message);
+        if (parts.isEmpty()) {
+            return null;
+        }
+        return parts == message.parts ? message.event : message.event(parts);
+    }
+
+    /**
+     * Queues an event without blocking. A subscriber whose queue is full is closed.
+     *
+     * @param message event to send
+     * @return false if the subscriber is closed and should be dropped
+     */
+    boolean offer(EventMessage message) {
+        if (isClosed()) {
+            return false;
+        }
+        if (window <= 0) {
+            OutboundEvent event = select(message);
+            return event == null || enqueue(event);
+        }
+        List<EventMessage.Part> parts = filter.select(message);
+        if (parts.isEmpty()) {
+            return true;
+        }
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                timer.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+            }
+            for (EventMessage.Part part : parts) {
+                String data = message.json(Collections.singletonList(part));
+                // move the subject to the end, the batch keeps the order of the latest changes
+                pending.remove(part.subject);
+                pending.put(part.subject, "{\"event\":\"" + message.name + "\",\"data\":" + data + "}");
+            }
+            pendingId = message.id;
+        }
+        return true;
+    }
+
+    boolean isClosed() {
+        return closed || output.isClosed();
+    }
+
+    void close() {
+        closed = true;
+        queue.clear();
+        try {
+            output.close();
+        } catch (IOException e) {
+            // the connection is already gone
+        }
+    }
+
+    /**
+     * Closes the subscriber if a write has been blocked for longer than the write timeout,
+     * and interrupts the writer thread to abort the write.
+     *
+     * @return false if the subscriber is closed and should be dropped
+     */
+    boolean expireWrite() {
+        synchronized (this) {
+            if (writing != null && System.nanoTime() - writeStart > writeTimeout) {
+                log.warn("Disconnecting an event subscriber blocked in a write for {} ms.",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - writeStart));
+                closed = true;
+                writing.interrupt();
+            }
+        }
+        if (isClosed()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    private void flush() {
+        OutboundEvent batch;
+        synchronized (pending) {
+            batch = new OutboundEvent.Builder()
+                    .name("batch")
+                    .id(Long.toString(pendingId))
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data("[" + String.join(",", pending.values()) + "]")
+                    .build();
+            pending.clear();
+        }
+        if (!isClosed()) {
+            enqueue(batch);
+        }
+    }
+
+    private boolean enqueue(OutboundEvent event) {
+        if (!queue.offer(event)) {
+            // it can reconnect with Last-Event-ID and catch up from the replay buffer
+            log.warn("Disconnecting an event subscriber lagging by {} events.", queue.size());
+            close();
+            return false;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            writers.execute(this::drain);
+        }
+        return true;
+    }
+
+    private void drain() {
+        do {
+            OutboundEvent event;
+            while ((event = queue.poll()) != null) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    writing = Thread.currentThread();
+                    writeStart = System.nanoTime();
+                }
+                try {
+                    output.write(event);
+                } catch (IOException e) {
+                    close();
+                    return;
+                } finally {
+                    synchronized (this) {
+                        writing = null;
+                        // an interrupt aimed at this write must not hit the next subscriber's
+                        Thread.interrupted();
+                    }
+                }
+            }
+            scheduled.set(false);
+            // an event queued after the last poll but before the flag was cleared found it still set
+        } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+    }
+}
@@ -17,9 +17,11 @@ package org.sdnlab.routingrest;
 
 import org.glassfish.jersey.media.sse.EventOutput;
 import org.glassfish.jersey.media.sse.OutboundEvent;
-import org.glassfish.jersey.media.sse.SseBroadcaster;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.onosproject.event.Event;
 import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.Link;
 import org.onosproject.net.device.DeviceEvent;
 import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
@@ -35,22 +37,41 @@ import org.onosproject.rest.AbstractWebResource;
 import org.sdnlab.routingrest.data.DeviceEventDto;
 import org.sdnlab.routingrest.data.HostEventDto;
 import org.sdnlab.routingrest.data.LinkEventDto;
+import org.sdnlab.routingrest.data.PathDto;
+import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.data.RouteEventDto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.onlab.util.Tools.groupedThreads;
+
 /**
  * Event web resource.
  */
@@ -58,74 +79,226 @@ import javax.ws.rs.core.MediaType;
 @Singleton
 @Path("events")
 public class EventWebResource extends AbstractWebResource {
-    private SseBroadcaster broadcaster = new SseBroadcaster();
+    // number of recent events kept for resuming clients, must be a power of two
+    private static final int REPLAY_SIZE = 1024;
+    // events queued for one client before it is considered lagging and disconnected
+    private static final int SUBSCRIBER_QUEUE_SIZE = 256;
+    private static final int WRITER_THREADS = 4;
+    // a write blocked for longer closes its subscriber, so a stalled client cannot hold a writer
+    private static final long WRITE_TIMEOUT_MILLIS = 10_000;
+    private static final long MAX_WINDOW_MILLIS = 60_000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ObjectWriter writer = mapper().writer().without(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
+    // serializes and fans out the events off the ONOS event dispatch thread
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(
+            groupedThreads("sdnlab/routing-rest", "event-dispatcher", log));
+    private final ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS,
+            groupedThreads("sdnlab/routing-rest", "event-writer-%d", log));
+    // flushes the batches of the subscribers with a coalescing window and expires blocked writes
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            groupedThreads("sdnlab/routing-rest", "event-flusher", log));
+
+    // guarded by this, the index is replaced whenever the subscribers change
+    private final List<EventSubscriber> subscribers = new ArrayList<>();
+    private SubscriptionIndex index = SubscriptionIndex.EMPTY;
+
+    // guarded by this, the event with id n is at n & (REPLAY_SIZE - 1)
+    private final EventMessage[] replay = new EventMessage[REPLAY_SIZE];
+    private int replayCount;
+    // start from the clock so ids from a previous run are not mistaken for recent ones
+    private long latestEventId = System.currentTimeMillis() << 10;
 
     private final TopologyService topologyService = getService(TopologyService.class);
     private final DeviceService deviceService = getService(DeviceService.class);
     private final HostService hostService = getService(HostService.class);
+    private final RoutingService routingService = getService(RoutingService.class);
 
     private TopologyListener topologyListener = new InternalTopologyListener();
     private DeviceListener deviceListener = new InternalDeviceListener();
     private HostListener hostListener = new InternalHostListener();
-
-    private final Logger log = LoggerFactory.getLogger(getClass());
+    private RouteListener routeListener = new InternalRouteListener();
 
     public EventWebResource() {
         topologyService.addListener(topologyListener);
         deviceService.addListener(deviceListener);
         hostService.addListener(hostListener);
+        routingService.addListener(routeListener);
+        flusher.scheduleWithFixedDelay(this::expireWrites, WRITE_TIMEOUT_MILLIS / 2, WRITE_TIMEOUT_MILLIS / 2,
+                TimeUnit.MILLISECONDS);
         log.info("Initialized!");
     }
 
     @PreDestroy
     public void cleanUp() {
-        broadcaster.closeAll();
+        routingService.removeListener(routeListener);
         hostService.removeListener(hostListener);
         deviceService.removeListener(deviceListener);
         topologyService.removeListener(topologyListener);
+        dispatcher.shutdown();
+        flusher.shutdown();
+        writers.shutdown();
+        synchronized (this) {
+            subscribers.forEach(EventSubscriber::close);
+            subscribers.clear();
+            index = SubscriptionIndex.EMPTY;
+        }
         log.info("Stopped!");
     }
 
     /**
      * Listens on topology events.
+     * Every event carries an id, a client reconnecting with the Last-Event-ID header first receives
+     * the events it missed. When they are no longer available a "reset" event is sent instead,
+     * telling the client to reload the topology and routes.
+     * With a coalescing window, the events are sent every window as a "batch" event, a list of
+     * {"event": name, "data": data} keeping only the latest event of each device, link and host.
      *
+     * The events can be restricted by comma separated lists of event types (topology, device, host, route),
+     * device ids and host id prefixes. The device ids keep the events about these devices, the links
+     * ending on them, the hosts attached to them and the routes through them, the host prefixes only
+     * restrict the host events.
+     *
+     * @param lastEventId id of the last event received before reconnecting
+     * @param window coalescing window in milliseconds, 0 sends every event as it happens
+     * @param types event types to receive, all by default
+     * @param devices device ids to receive events about, all by default
+     * @param hosts host id prefixes to receive host events about, all by default
      * @return SSE event stream
      */
     @GET
     @Produces(MediaType.SERVER_SENT_EVENTS)
-    public EventOutput listenEvents() {
+    public EventOutput listenEvents(@HeaderParam(SseFeature.LAST_EVENT_ID_HEADER) String lastEventId,
+                                    @QueryParam("window") @DefaultValue("0") long window,
+                                    @QueryParam("types") String types,
+                                    @QueryParam("devices") String devices,
+                                    @QueryParam("hosts") String hosts) {
+        checkArgument(window >= 0 && window <= MAX_WINDOW_MILLIS,
+                "window must be between 0 and %s ms", MAX_WINDOW_MILLIS);
+        EventFilter filter = EventFilter.parse(types, devices, hosts);
+
         final EventOutput eventOutput = new EventOutput();
-        broadcaster.add(eventOutput);
+        EventSubscriber subscriber = new EventSubscriber(eventOutput, filter, SUBSCRIBER_QUEUE_SIZE, writers,
+                WRITE_TIMEOUT_MILLIS, window, flusher);
+        // the output buffers the replayed events until the response is committed,
+        // the live events are queued behind them
+        synchronized (this) {
+            if (lastEventId != null) {
+                replay(subscriber, eventOutput, lastEventId);
+            }
+            subscribers.add(subscriber);
+            index = new SubscriptionIndex(subscribers);
+        }
         return eventOutput;
     }
 
-    private <T> void broadcast(String name, T data) {
+    private void replay(EventSubscriber subscriber, EventOutput eventOutput, String lastEventId) {
         try {
-            String json = mapper().configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false).writeValueAsString(data);
-            OutboundEvent response = new OutboundEvent.Builder()
-                    .name(name)
-                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
-                    .data(json)
-                    .build();
-            broadcaster.broadcast(response);
+            long since;
+            try {
+                since = Long.parseLong(lastEventId);
+            } catch (NumberFormatException e) {
+                since = -1;
+            }
+            if (since > latestEventId || latestEventId - since > replayCount) {
+                eventOutput.write(new OutboundEvent.Builder()
+                        .name("reset")
+                        .id(Long.toString(latestEventId))
+                        .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                        .data("{}")
+                        .build());
+                return;
+            }
+            for (long id = since + 1; id <= latestEventId; id++) {
+                OutboundEvent event = subscriber.select(replay[(int) id & (REPLAY_SIZE - 1)]);
+                if (event != null) {
+                    eventOutput.write(event);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to replay events to a resuming client.", e);
+        }
+    }
+
+    // an element of an event, the whole data of a single event or an item of a list event
+    private static final class Element {
+        final String subject;
+        final Object data;
+        final Set<String> devices;
+        final String host;
+
+        Element(String subject, Object data, Set<String> devices, String host) {
+            this.subject = subject;
+            this.data = data;
+            this.devices = devices;
+            this.host = host;
+        }
+    }
+
+    private void broadcast(String name, Element element) {
+        dispatcher.execute(() -> publish(name, ImmutableList.of(element), false));
+    }
+
+    // an event whose data is a list of the elements
+    private void broadcastList(String name, List<Element> elements) {
+        dispatcher.execute(() -> publish(name, elements, true));
+    }
+
+    private void publish(String name, List<Element> elements, boolean isList) {
+        List<EventMessage.Part> parts = new ArrayList<>(elements.size());
+        try {
+            for (Element element : elements) {
+                String json = writer.writeValueAsString(element.data);
+                parts.add(new EventMessage.Part(element.subject, json, element.devices, element.host));
+            }
         } catch (JsonProcessingException e) {
             log.error("Error occurred in converting event to json string.", e);
             return;
         }
+
+        synchronized (this) {
+            EventMessage message = new EventMessage(++latestEventId, name, isList, parts);
+            replay[(int) message.id & (REPLAY_SIZE - 1)] = message;
+            replayCount = Math.min(replayCount + 1, REPLAY_SIZE);
+
+            boolean dropped = false;
+            for (EventSubscriber subscriber : index.lookup(message)) {
+                if (!subscriber.offer(message)) {
+                    dropped |= subscribers.remove(subscriber);
+                }
+            }
+            if (dropped) {
+                index = new SubscriptionIndex(subscribers);
+            }
+        }
+    }
+
+    private synchronized void expireWrites() {
+        if (subscribers.removeIf(subscriber -> !subscriber.expireWrite())) {
+            index = new SubscriptionIndex(subscribers);
+        }
+    }
+
+    private static Element linkElement(LinkEvent event) {
+        Link link = event.subject();
+        return new Element("link:" + link.src() + "-" + link.dst(), new LinkEventDto(event),
+                ImmutableSet.of(link.src().deviceId().toString(), link.dst().deviceId().toString()), null);
     }
 
     private class InternalTopologyListener implements TopologyListener {
         @Override
         public void event(TopologyEvent event) {
-            List<LinkEventDto> data = new ArrayList<>();
+            List<Element> data = new ArrayList<>();
             for (Event reason : event.reasons()) {
                 if (reason instanceof LinkEvent) {
                     LinkEvent linkEvent = (LinkEvent) reason;
-                    data.add(new LinkEventDto(linkEvent));
+                    data.add(linkElement(linkEvent));
                 }
             }
             if (data.size() > 0) {
-                broadcast("topology", data);
+                broadcastList("topology", data);
             }
         }
 
@@ -139,7 +312,7 @@ public class EventWebResource extends AbstractWebResource {
     private class InternalLinkListener implements LinkListener {
         @Override
         public void event(LinkEvent event) {
-            broadcast("link", new LinkEventDto(event));
+            broadcast("link", linkElement(event));
         }
     }
 
@@ -147,7 +320,8 @@ public class EventWebResource extends AbstractWebResource {
         @Override
         public void event(DeviceEvent event) {
             DeviceId deviceId = event.subject().id();
-            broadcast("device", new DeviceEventDto(event, deviceService.isAvailable(deviceId)));
+            DeviceEventDto data = new DeviceEventDto(event, deviceService.isAvailable(deviceId));
+            broadcast("device", new Element("device:" + deviceId, data, ImmutableSet.of(deviceId.toString()), null));
         }
 
         @Override
@@ -160,7 +334,34 @@ public class EventWebResource extends AbstractWebResource {
     private class InternalHostListener implements HostListener {
         @Override
         public void event(HostEvent event) {
-            broadcast("host", new HostEventDto(event));
+            Host host = event.subject();
+            Set<String> devices = new HashSet<>();
+            devices.add(host.location().deviceId().toString());
+            if (event.prevSubject() != null) {
+                // a moved host concerns both of its locations
+                devices.add(event.prevSubject().location().deviceId().toString());
+            }
+            broadcast("host", new Element("host:" + host.id(), new HostEventDto(event), devices, host.id().toString()));
+        }
+    }
+
+    private class InternalRouteListener implements RouteListener {
+        @Override
+        public void event(RouteEvent event) {
+            RouteDto route = event.subject();
+            Set<String> devices = new HashSet<>();
+            addDevices(devices, route.path);
+            if (route.isMultipath()) {
+                route.alternatives.forEach(path -> addDevices(devices, path));
+            }
+            broadcast("route", new Element("route:" + route.id, new RouteEventDto(event), devices, null));
+        }
+
+        private void addDevices(Set<String> devices, PathDto path) {
+            // the first and last points are the hosts
+            for (int i = 1; i < path.points.size() - 1; i++) {
+                devices.add(path.points.get(i).id);
+            }
         }
     }
 }
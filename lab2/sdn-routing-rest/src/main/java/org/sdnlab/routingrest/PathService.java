@@ -0,0 +1,30 @@
+package org.sdnlab.routingrest;
+
+import java.util.List;
+
+import org.onosproject.net.HostId;
+import org.sdnlab.routingrest.data.LinkLoadDto;
+import org.sdnlab.routingrest.data.PathDto;
+import org.sdnlab.routingrest.exception.NotFoundException;
+
+public interface PathService {
+
+    /**
+     * Compute a path between two hosts. Links are weighted by their hop, their recent utilization
+     * and their drops, so a loaded link is only used when the other paths are much longer.
+     *
+     * @param src source host id
+     * @param dst destination host id
+     * @return path from host to host, usable as a route
+     * @throws NotFoundException a host is not found or the hosts are not connected
+     */
+    PathDto getPath(HostId src, HostId dst) throws NotFoundException;
+
+    /**
+     * Get the load of every active link between devices, from the port statistics of the last
+     * polling interval of the devices.
+     *
+     * @return link loads
+     */
+    List<LinkLoadDto> getLinkLoads();
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sdnlab.routingrest;
+
+import org.onosproject.net.HostId;
+import org.onosproject.rest.AbstractWebResource;
+import org.sdnlab.routingrest.data.LinkLoadDto;
+import org.sdnlab.routingrest.data.PathDto;
+import org.sdnlab.routingrest.exception.NotFoundException;
+
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Path computation web resource.
+ */
+@Path("paths")
+public class PathWebResource extends AbstractWebResource {
+
+    private final PathService pathService = getService(PathService.class);
+
+    /**
+     * Computes a path between two hosts, avoiding the loaded links.
+     * The path can be posted as is in a route.
+     *
+     * @param src source host id
+     * @param dst destination host id
+     * @return 200 OK, the path
+     */
+    @GET
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public PathDto getPath(@QueryParam("src") String src, @QueryParam("dst") String dst) {
+        if (src == null || dst == null) {
+            throw new BadRequestException("Both src and dst hosts are required.");
+        }
+        try {
+            return pathService.getPath(HostId.hostId(src), HostId.hostId(dst));
+        } catch (NotFoundException e) {
+            throw new javax.ws.rs.NotFoundException(e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the utilization and drop rate of the links between devices.
+     *
+     * @return 200 OK, a list of link loads
+     */
+    @GET
+    @Path("loads")
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public List<LinkLoadDto> getLinkLoads() {
+        return pathService.getLinkLoads();
+    }
+}
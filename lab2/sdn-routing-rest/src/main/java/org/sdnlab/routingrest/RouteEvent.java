@@ -0,0 +1,31 @@
+package org.sdnlab.routingrest;
+
+import org.onosproject.event.AbstractEvent;
+import org.sdnlab.routingrest.data.RouteDto;
+
+/**
+ * Installation state change of a route, the subject is the route with its new state.
+ */
+public class RouteEvent extends AbstractEvent<RouteEvent.Type, RouteDto> {
+
+    public enum Type {
+        ROUTE_PENDING,
+        ROUTE_INSTALLED,
+        ROUTE_FAILED
+    }
+
+    public RouteEvent(Type type, RouteDto route) {
+        super(type, route);
+    }
+
+    public static Type of(RouteDto.State state) {
+        switch (state) {
+            case INSTALLED:
+                return Type.ROUTE_INSTALLED;
+            case FAILED:
+                return Type.ROUTE_FAILED;
+            default:
+                return Type.ROUTE_PENDING;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.sdnlab.routingrest;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.data.RouteJobDto;
+import org.sdnlab.routingrest.exception.NotFoundException;
+
+public interface RouteJobService {
+
+    /**
+     * Submit a batch of route operations to be executed in the background.
+     *
+     * @param type   operation applied to every route
+     * @param routes routes in the format expected by the corresponding RoutingService operation
+     * @return the pending job
+     */
+    RouteJobDto submit(RouteJobDto.Type type, List<RouteDto> routes);
+
+    /**
+     * Get the current status of a job.
+     *
+     * @param id job id
+     * @return job status
+     * @throws NotFoundException job is not found or has expired
+     */
+    RouteJobDto getJob(long id) throws NotFoundException;
+
+    /**
+     * Get a future completed with the final status of a job.
+     *
+     * @param id job id
+     * @return future of the job status
+     * @throws NotFoundException job is not found or has expired
+     */
+    CompletableFuture<RouteJobDto> getCompletion(long id) throws NotFoundException;
+
+    /**
+     * Get the status of all known jobs.
+     *
+     * @return jobs
+     */
+    Collection<RouteJobDto> getJobs();
+}
@@ -0,0 +1,9 @@
+package org.sdnlab.routingrest;
+
+import org.onosproject.event.EventListener;
+
+/**
+ * Listener of route installation state changes.
+ */
+public interface RouteListener extends EventListener<RouteEvent> {
+}
@@ -0,0 +1,28 @@
+package org.sdnlab.routingrest;
+
+import java.util.List;
+
+import org.sdnlab.routingrest.data.RouteStatsDto;
+import org.sdnlab.routingrest.exception.NotFoundException;
+
+public interface RouteStatisticsService {
+
+    /**
+     * Get the latest counters and rates of every measured route, without the time series.
+     * Routes compiled into per-destination rules share their counters and are not measured.
+     * Routes of the same host pair with the same ingress port share one ingress rule, only the
+     * one with the lowest id is measured.
+     *
+     * @return statistics ordered by route id
+     */
+    List<RouteStatsDto> getStatistics();
+
+    /**
+     * Get the counters, rates and recent rate samples of a route.
+     *
+     * @param id route id
+     * @return statistics
+     * @throws NotFoundException route is not measured yet or not found
+     */
+    RouteStatsDto getStatistics(long id) throws NotFoundException;
+}
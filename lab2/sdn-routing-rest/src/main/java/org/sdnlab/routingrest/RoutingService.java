@@ -1,22 +1,74 @@
 package org.sdnlab.routingrest;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import javax.annotation.Nullable;
+
+import org.onosproject.event.ListenerService;
 import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.data.RouteSyncDto;
 import org.sdnlab.routingrest.exception.InvalidRouteException;
 import org.sdnlab.routingrest.exception.NotFoundException;
+import org.sdnlab.routingrest.exception.PartialInstallException;
+
+public interface RoutingService extends ListenerService<RouteEvent, RouteListener> {
 
-public interface RoutingService {
+    /**
+     * Get all routes from route table, each with its installation state.
+     * The returned collection is a read-only view of the table at the time of the call.
+     *
+     * @return routes
+     */
+    public Collection<RouteDto> getRoutes();
 
     /**
-     * Get all routes from route table.
+     * Get a page of the routes matching the given filters, ordered by route id.
      *
+     * @param src    source host id, or null for any
+     * @param dst    destination host id, or null for any
+     * @param device id of a device the route traverses, or null for any
+     * @param cursor only routes with a greater id are returned, or null to start from the first route
+     * @param limit  maximum number of routes, 0 for no limit
      * @return routes
      */
-    public List<RouteDto> getRoutes();
+    public List<RouteDto> getRoutes(@Nullable String src, @Nullable String dst, @Nullable String device,
+            @Nullable Long cursor, int limit);
+
+    /**
+     * Get the version of the route table.
+     * The version changes whenever a route is added, updated, removed or changes installation state,
+     * and is not reused after a restart.
+     *
+     * @return version
+     */
+    public long getRoutesVersion();
+
+    /**
+     * Tell whether a route from a host to another exists, without scanning the route table.
+     *
+     * @param src source host id
+     * @param dst destination host id
+     * @return true if at least one route joins the hosts
+     */
+    boolean hasRoute(String src, String dst);
+
+    /**
+     * Get the installation of a route, completed once every rule of the route is confirmed by the devices
+     * (INSTALLED) or one of them is rejected (FAILED). Listeners receive the same state changes as events.
+     *
+     * @param id route id
+     * @return future of the final state, already completed if the route is not pending
+     * @throws NotFoundException route is not found
+     */
+    CompletableFuture<RouteDto.State> getInstallation(long id) throws NotFoundException;
 
     /**
      * Add a path to route table and install flow rules to devices.
+     * If the route carries equal-cost alternative paths, the hops where the paths
+     * diverge are programmed as select groups to balance the traffic among them.
      *
      * @param path a route from host to host without route id.
      * @return route with route id only
@@ -33,6 +85,18 @@ public interface RoutingService {
      */
     List<RouteDto> addRoutes(List<RouteDto> routes) throws InvalidRouteException;
 
+    /**
+     * Add routes pulled one at a time from a stream, e.g. a request body being parsed.
+     * Each route is validated as soon as it is pulled and installed while the next ones are read.
+     * The batch is not atomic: routes installed before a failure are kept.
+     *
+     * @param routes routes from host to host without route id.
+     * @return routes with route id only, in the order of the stream
+     * @throws InvalidRouteException   invalid path
+     * @throws PartialInstallException failure after some routes were installed, with their ids
+     */
+    List<RouteDto> addRoutes(Iterator<RouteDto> routes) throws InvalidRouteException;
+
     /**
      * Update a route by route id.
      * Remove old flow rules and install new flow rules to devices.
@@ -43,6 +107,18 @@ public interface RoutingService {
      */
     void updateRoute(RouteDto route) throws InvalidRouteException, NotFoundException;
 
+    /**
+     * Update a route by route id, only if it still has the paths it had when it was read.
+     * The paths are compared under the route's lock, a concurrent update is never overwritten.
+     *
+     * @param route    a route from host to host.
+     * @param expected the route as it was read
+     * @return false if the route has changed since it was read, nothing is updated then
+     * @throws InvalidRouteException invalid path
+     * @throws NotFoundException     route is not found
+     */
+    boolean updateRoute(RouteDto route, RouteDto expected) throws InvalidRouteException, NotFoundException;
+
     /**
      * Update multiple routes by route ids.
      * Remove old flow rules and install new flow rules to devices.
@@ -53,6 +129,17 @@ public interface RoutingService {
      */
     void updateRoutes(List<RouteDto> routes) throws InvalidRouteException, NotFoundException;
 
+    /**
+     * Update routes pulled one at a time from a stream, e.g. a request body being parsed.
+     *
+     * @param routes routes from host to host.
+     * @throws InvalidRouteException   invalid path
+     * @throws NotFoundException       route is not found
+     * @throws PartialInstallException failure after some routes were updated, with their ids
+     * @see #addRoutes(Iterator)
+     */
+    void updateRoutes(Iterator<RouteDto> routes) throws InvalidRouteException, NotFoundException;
+
     /**
      * Remove a route and the corresponding flow rules.
      *
@@ -67,6 +154,30 @@ public interface RoutingService {
      */
     void deleteRoutes(List<RouteDto> routes);
 
+    /**
+     * Make the route table match the desired routes in one batch.
+     * Routes are matched by source and destination host: missing routes are added, routes with
+     * another path are updated in place and routes of pairs that are not desired are removed.
+     * Routes are only removed once every update and addition is in; a failed sync keeps them.
+     *
+     * @param routes desired routes without route id, at most one per host pair
+     * @return counts of each change and the route ids in the order of the desired routes
+     * @throws InvalidRouteException   invalid path or duplicate host pair
+     * @throws PartialInstallException failure after some routes were updated or added, with their ids
+     */
+    RouteSyncDto syncRoutes(List<RouteDto> routes) throws InvalidRouteException;
+
+    /**
+     * Add a route for every ordered pair of known hosts without one, along hop-count shortest paths.
+     * The paths to a destination device form a tree, the trees are computed in parallel and the routes
+     * installed in one batch. Existing routes are kept as they are, unreachable pairs are skipped.
+     *
+     * @return counts of added and kept routes, and the route ids ordered by source then destination host
+     * @throws InvalidRouteException   a computed path no longer matches the topology
+     * @throws PartialInstallException failure after some routes were installed, with their ids
+     */
+    RouteSyncDto provisionAllPairs() throws InvalidRouteException;
+
     /**
      * Clear all routes and flow rules.
      */
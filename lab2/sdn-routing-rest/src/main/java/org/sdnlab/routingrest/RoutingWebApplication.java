@@ -26,6 +26,7 @@ import java.util.Set;
 public class RoutingWebApplication extends AbstractWebApplication {
     @Override
     public Set<Class<?>> getClasses() {
-        return getClasses(RoutingWebResource.class, TopologyWebResource.class, EventWebResource.class);
+        return getClasses(RoutingWebResource.class, TopologyWebResource.class, PathWebResource.class,
+                EventWebResource.class, SmileProvider.class);
     }
 }
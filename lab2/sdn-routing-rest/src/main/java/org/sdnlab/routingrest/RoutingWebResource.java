@@ -17,33 +17,93 @@ package org.sdnlab.routingrest;
 
 import org.onosproject.rest.AbstractWebResource;
 import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.data.RouteJobDto;
+import org.sdnlab.routingrest.data.RouteStatsDto;
+import org.sdnlab.routingrest.data.RouteSyncDto;
+import org.sdnlab.routingrest.exception.NotFoundException;
+import org.sdnlab.routingrest.exception.PartialInstallException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.type.CollectionType;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import static org.onlab.util.Tools.groupedThreads;
 
 /**
  * Routing web resource.
  */
+@Singleton
 @Path("routes")
 public class RoutingWebResource extends AbstractWebResource {
+    private static final int REQUEST_THREADS = 4;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    // decodes and installs the added or updated routes, the request thread is released once suspended
+    private final ExecutorService requests = Executors.newFixedThreadPool(REQUEST_THREADS,
+            groupedThreads("sdnlab/routing-rest", "route-request-%d", log));
 
     private final RoutingService routingService = getService(RoutingService.class);
+    private final RouteJobService routeJobService = getService(RouteJobService.class);
+    private final RouteStatisticsService routeStatsService = getService(RouteStatisticsService.class);
+
+    @Context
+    private HttpHeaders headers;
+
+    private ObjectMapper inputMapper() {
+        return SmileProvider.isSmile(headers.getMediaType()) ? SmileProvider.mapper() : mapper();
+    }
+
+    @PreDestroy
+    public void cleanUp() {
+        requests.shutdownNow();
+    }
 
     private <T> List<T> parseListOfObjectsFromStream(InputStream stream, Class<T> expected) {
-        ObjectMapper map = mapper();
+        return parseListOfObjectsFromStream(inputMapper(), stream, expected);
+    }
+
+    private <T> List<T> parseListOfObjectsFromStream(ObjectMapper map, InputStream stream, Class<T> expected) {
         CollectionType collectionType = map.getTypeFactory().constructCollectionType(List.class, expected);
         try {
             return map.readValue(stream, collectionType);
@@ -53,60 +113,417 @@ public class RoutingWebResource extends AbstractWebResource {
     }
 
     /**
-     * Gets all routes.
+     * Runs a suspended request on the request pool, a failure resumes the response with the error.
+     */
+    private void runOnPool(AsyncResponse response, Runnable request) {
+        requests.execute(() -> {
+            try {
+                request.run();
+            } catch (RuntimeException e) {
+                response.resume(e);
+            }
+        });
+    }
+
+    /**
+     * Decodes a json list lazily, one object per call to next().
+     * Nothing but the current object is held in memory.
+     * The list must be closed after the last object; a truncated body or an element that is
+     * not an object fails the iteration instead of ending it.
+     */
+    private <T> Iterator<T> streamObjectsFromStream(ObjectMapper map, InputStream stream, Class<T> expected) {
+        try {
+            JsonParser parser = map.getFactory().createParser(stream);
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new BadRequestException("Unable to parse Route request: a list is expected");
+            }
+            return new Iterator<T>() {
+                private JsonToken token = parser.nextToken();
+
+                @Override
+                public boolean hasNext() {
+                    if (token == JsonToken.START_OBJECT) {
+                        return true;
+                    }
+                    if (token == JsonToken.END_ARRAY) {
+                        return false;
+                    }
+                    throw new BadRequestException(token == null
+                            ? "Unable to parse Route request: the list is not closed"
+                            : "Unable to parse Route request: an object is expected, got " + token);
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    try {
+                        T value = map.readValue(parser, expected);
+                        token = parser.nextToken();
+                        return value;
+                    } catch (IOException e) {
+                        throw new BadRequestException("Unable to parse Route request", e);
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new BadRequestException("Unable to parse Route request", e);
+        }
+    }
+
+    /**
+     * Gets routes, optionally filtered and paginated.
+     * The response carries the route table version as ETag; a request whose If-None-Match
+     * holds the current version gets 304 Not Modified without any route being serialized.
+     * When more routes are available, a Link header with rel="next" points to the next page.
      *
-     * @return 200 OK, a list of routes
+     * @param src     only routes from this host id
+     * @param dst     only routes to this host id
+     * @param device  only routes traversing this device id
+     * @param cursor  only routes after this route id (the cursor of the previous page)
+     * @param limit   maximum number of routes, 0 for all of them
+     * @param request request used to evaluate the preconditions
+     * @param uriInfo request uri used to build the link to the next page
+     * @return 200 OK, a list of routes; 304 Not Modified
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
-    public List<RouteDto> getRoutes() {
-        List<RouteDto> routes = routingService.getRoutes();
-        return routes;
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public Response getRoutes(@QueryParam("src") String src,
+            @QueryParam("dst") String dst,
+            @QueryParam("device") String device,
+            @QueryParam("cursor") Long cursor,
+            @QueryParam("limit") @DefaultValue("0") int limit,
+            @Context Request request,
+            @Context UriInfo uriInfo) {
+        if (limit < 0) {
+            throw new BadRequestException("limit must not be negative");
+        }
+
+        // read the version first, the routes may only be newer than the tag and never older
+        EntityTag tag = new EntityTag(Long.toHexString(routingService.getRoutesVersion()));
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.tag(tag).build();
+        }
+
+        if (src == null && dst == null && device == null && cursor == null && limit == 0) {
+            Collection<RouteDto> routes = routingService.getRoutes();
+            return Response.ok(routes).tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+        }
+
+        List<RouteDto> routes = routingService.getRoutes(src, dst, device, cursor, limit);
+        Response.ResponseBuilder builder = Response.ok(routes).tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (limit > 0 && routes.size() == limit) {
+            long next = routes.get(routes.size() - 1).id;
+            builder.link(uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", next).build(), "next");
+        }
+        return builder.build();
     }
 
     /**
      * Creates new routes.
+     * The body is decoded and the routes are installed on the request pool, not on the request thread.
+     * In streaming mode, routes are installed while the rest of the body is still being parsed;
+     * if the batch fails part-way, the error comes with the ids of the routes already installed.
+     * In async mode, the routes are installed by a background job.
+     * With a wait time, the response is held until the devices have confirmed or rejected the rules
+     * of every route, or the time is up, and each route id comes with its installation state.
      *
-     * @param stream a list of new routes
-     * @return 201 Created
+     * @param streaming whether to decode and install the routes one at a time
+     * @param async     whether to return as soon as the job is submitted
+     * @param wait      maximum time to wait for the routes to be installed, in milliseconds
+     * @param uriInfo   request uri used to locate the job
+     * @param stream    a list of new routes
+     * @param response  suspended response resumed with the route ids
      */
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
-    public Response addRoutes(InputStream stream) {
-        List<RouteDto> routes = parseListOfObjectsFromStream(stream, RouteDto.class);
-        List<RouteDto> routeIds = routingService.addRoutes(routes);
-        return Response.status(Response.Status.CREATED).entity(routeIds).build();
+    @Consumes({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public void addRoutes(@QueryParam("stream") @DefaultValue("false") boolean streaming,
+            @QueryParam("async") @DefaultValue("false") boolean async,
+            @QueryParam("wait") @DefaultValue("0") long wait,
+            @Context UriInfo uriInfo,
+            InputStream stream,
+            @Suspended AsyncResponse response) {
+        ObjectMapper map = inputMapper();
+        runOnPool(response, () -> addRoutes(streaming, async, wait, uriInfo, map, stream, response));
+    }
+
+    private void addRoutes(boolean streaming, boolean async, long wait, UriInfo uriInfo, ObjectMapper map,
+            InputStream stream, AsyncResponse response) {
+        if (async) {
+            List<RouteDto> routes = parseListOfObjectsFromStream(map, stream, RouteDto.class);
+            response.resume(accepted(routeJobService.submit(RouteJobDto.Type.ADD, routes), uriInfo));
+            return;
+        }
+
+        List<RouteDto> routeIds;
+        if (streaming) {
+            try {
+                routeIds = routingService.addRoutes(streamObjectsFromStream(map, stream, RouteDto.class));
+            } catch (PartialInstallException e) {
+                response.resume(partial(e));
+                return;
+            }
+        } else {
+            List<RouteDto> routes = parseListOfObjectsFromStream(map, stream, RouteDto.class);
+            routeIds = routingService.addRoutes(routes);
+        }
+        if (wait <= 0) {
+            response.resume(Response.status(Response.Status.CREATED).entity(routeIds).build());
+            return;
+        }
+
+        List<CompletableFuture<RouteDto.State>> installations = new ArrayList<>();
+        for (RouteDto route : routeIds) {
+            try {
+                installations.add(routingService.getInstallation(route.id));
+            } catch (NotFoundException e) {
+                // removed in the meantime, it will not get any state
+                installations.add(new CompletableFuture<>());
+            }
+        }
+        response.setTimeout(wait, TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(timedOut -> timedOut.resume(created(routeIds, installations)));
+        // the installations complete on the flow rule event thread inside the tracker's monitor,
+        // the response is serialized and written elsewhere
+        CompletableFuture.allOf(installations.toArray(new CompletableFuture[0]))
+                .thenRunAsync(() -> response.resume(created(routeIds, installations)));
+    }
+
+    private static Response created(List<RouteDto> routeIds, List<CompletableFuture<RouteDto.State>> installations) {
+        List<RouteDto> routes = new ArrayList<>(routeIds.size());
+        for (int i = 0; i < routeIds.size(); i++) {
+            routes.add(routeIds.get(i).withState(installations.get(i).getNow(RouteDto.State.PENDING)));
+        }
+        return Response.status(Response.Status.CREATED).entity(routes).build();
     }
 
     /**
      * Updates old routes with new routes.
+     * The body is decoded and the routes are installed on the request pool, not on the request thread.
+     * In streaming mode, routes are installed while the rest of the body is still being parsed;
+     * if the batch fails part-way, the error comes with the ids of the routes already updated.
+     * In async mode, the routes are updated by a background job.
      *
-     * @param stream a list of new routes
-     * @return 200 OK
+     * @param streaming whether to decode and install the routes one at a time
+     * @param async     whether to return as soon as the job is submitted
+     * @param uriInfo   request uri used to locate the job
+     * @param stream    a list of new routes
+     * @param response  suspended response resumed with 200 OK; 202 Accepted with the job in async mode
      */
     @PUT
-    @Consumes(MediaType.APPLICATION_JSON)
-    public Response updateRoutes(InputStream stream) {
-        List<RouteDto> routes = parseListOfObjectsFromStream(stream, RouteDto.class);
-        routingService.updateRoutes(routes);
+    @Consumes({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public void updateRoutes(@QueryParam("stream") @DefaultValue("false") boolean streaming,
+            @QueryParam("async") @DefaultValue("false") boolean async,
+            @Context UriInfo uriInfo,
+            InputStream stream,
+            @Suspended AsyncResponse response) {
+        ObjectMapper map = inputMapper();
+        runOnPool(response, () -> response.resume(updateRoutes(streaming, async, uriInfo, map, stream)));
+    }
+
+    private Response updateRoutes(boolean streaming, boolean async, UriInfo uriInfo, ObjectMapper map,
+            InputStream stream) {
+        if (async) {
+            List<RouteDto> routes = parseListOfObjectsFromStream(map, stream, RouteDto.class);
+            return accepted(routeJobService.submit(RouteJobDto.Type.UPDATE, routes), uriInfo);
+        }
+
+        if (streaming) {
+            try {
+                routingService.updateRoutes(streamObjectsFromStream(map, stream, RouteDto.class));
+            } catch (PartialInstallException e) {
+                return partial(e);
+            }
+        } else {
+            List<RouteDto> routes = parseListOfObjectsFromStream(map, stream, RouteDto.class);
+            routingService.updateRoutes(routes);
+        }
         return Response.ok().build();
     }
 
     /**
      * Deletes routes by route id.
+     * In async mode, the routes are deleted by a background job.
      *
-     * @param stream a list of routes (route id only)
-     * @return 200 OK
+     * @param async   whether to return as soon as the job is submitted
+     * @param uriInfo request uri used to locate the job
+     * @param stream  a list of routes (route id only)
+     * @return 200 OK; 202 Accepted with the job in async mode
      */
     @DELETE
-    @Consumes(MediaType.APPLICATION_JSON)
-    public Response deleteRoutes(InputStream stream) {
+    @Consumes({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public Response deleteRoutes(@QueryParam("async") @DefaultValue("false") boolean async,
+            @Context UriInfo uriInfo,
+            InputStream stream) {
         List<RouteDto> routes = parseListOfObjectsFromStream(stream, RouteDto.class);
+        if (async) {
+            return accepted(routeJobService.submit(RouteJobDto.Type.DELETE, routes), uriInfo);
+        }
+
         routingService.deleteRoutes(routes);
         return Response.ok().build();
     }
 
+    /**
+     * Replaces the whole route table with the desired routes, applying only the difference.
+     *
+     * @param stream a list of desired routes (without route id), one per host pair
+     * @return 200 OK, the number of changes and the route ids in the order of the request;
+     *         on a failure part-way, the error with the ids of the routes already updated or added
+     */
+    @PUT
+    @Path("sync")
+    @Consumes({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public Response syncRoutes(InputStream stream) {
+        List<RouteDto> routes = parseListOfObjectsFromStream(stream, RouteDto.class);
+        RouteSyncDto result;
+        try {
+            result = routingService.syncRoutes(routes);
+        } catch (PartialInstallException e) {
+            return partial(e);
+        }
+        return Response.ok(result).build();
+    }
+
+    /**
+     * Adds a shortest path route for every host pair without a route, computed by the controller.
+     *
+     * @return 200 OK, the number of added and kept routes and the route ids by source then destination;
+     *         on a failure part-way, the error with the ids of the routes already installed
+     */
+    @POST
+    @Path("mesh")
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public Response provisionAllPairs() {
+        RouteSyncDto result;
+        try {
+            result = routingService.provisionAllPairs();
+        } catch (PartialInstallException e) {
+            return partial(e);
+        }
+        return Response.ok(result).build();
+    }
+
+    /**
+     * Gets the status of all route jobs.
+     *
+     * @return 200 OK, a list of jobs
+     */
+    @GET
+    @Path("jobs")
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public Collection<RouteJobDto> getJobs() {
+        return routeJobService.getJobs();
+    }
+
+    /**
+     * Gets the status of a route job.
+     * With a wait time, the response is held until the job is done or the time is up,
+     * without blocking a request thread.
+     *
+     * @param id       job id
+     * @param wait     maximum time to wait for the job to finish, in milliseconds
+     * @param response suspended response resumed with the job status
+     */
+    @GET
+    @Path("jobs/{id}")
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public void getJob(@PathParam("id") long id,
+            @QueryParam("wait") @DefaultValue("0") long wait,
+            @Suspended AsyncResponse response) {
+        CompletableFuture<RouteJobDto> completion;
+        RouteJobDto job;
+        try {
+            completion = routeJobService.getCompletion(id);
+            job = routeJobService.getJob(id);
+        } catch (NotFoundException e) {
+            response.resume(new javax.ws.rs.NotFoundException(e.getMessage()));
+            return;
+        }
+
+        if (wait <= 0 || completion.isDone()) {
+            response.resume(completion.getNow(job));
+            return;
+        }
+        response.setTimeout(wait, TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(timedOut -> {
+            try {
+                timedOut.resume(routeJobService.getJob(id));
+            } catch (NotFoundException e) {
+                timedOut.resume(new javax.ws.rs.NotFoundException(e.getMessage()));
+            }
+        });
+        completion.thenAccept(response::resume);
+    }
+
+    /**
+     * Gets the latest counters and rates of all measured routes.
+     *
+     * @return 200 OK, a list of route statistics
+     */
+    @GET
+    @Path("stats")
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public List<RouteStatsDto> getStatistics() {
+        return routeStatsService.getStatistics();
+    }
+
+    /**
+     * Gets the counters, rates and recent rate samples of a route.
+     *
+     * @param id route id
+     * @return 200 OK, route statistics
+     */
+    @GET
+    @Path("{id}/stats")
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public RouteStatsDto getStatistics(@PathParam("id") long id) {
+        try {
+            return routeStatsService.getStatistics(id);
+        } catch (NotFoundException e) {
+            throw new javax.ws.rs.NotFoundException(e.getMessage());
+        }
+    }
+
+    private Response accepted(RouteJobDto job, UriInfo uriInfo) {
+        URI location = uriInfo.getBaseUriBuilder()
+                .path(RoutingWebResource.class)
+                .path("jobs")
+                .path(String.valueOf(job.id))
+                .build();
+        return Response.accepted(job).location(location).build();
+    }
+
+    /**
+     * Reports a batch that failed part-way: the status of the failure, its message
+     * and the ids of the routes that were installed before it and are kept.
+     */
+    private Response partial(PartialInstallException e) {
+        Throwable cause = e.getCause();
+        Response.Status status;
+        if (cause instanceof WebApplicationException) {
+            status = Response.Status.fromStatusCode(((WebApplicationException) cause).getResponse().getStatus());
+        } else if (cause instanceof NotFoundException) {
+            status = Response.Status.NOT_FOUND;
+        } else if (cause instanceof IllegalArgumentException) {
+            status = Response.Status.BAD_REQUEST;
+        } else {
+            status = Response.Status.INTERNAL_SERVER_ERROR;
+        }
+        ObjectNode entity = mapper().createObjectNode();
+        entity.put("code", status.getStatusCode());
+        entity.put("message", e.getMessage());
+        entity.set("routes", mapper().valueToTree(e.installed()));
+        return Response.status(status).entity(entity).build();
+    }
+
     /**
      * Clear all routes.
      *
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sdnlab.routingrest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable lookup of the subscribers an event may concern, by event name and device.
+ * It is rebuilt whenever a subscriber joins or leaves, the candidates still apply their own filter.
+ */
+final class SubscriptionIndex {
+    static final SubscriptionIndex EMPTY = new SubscriptionIndex(Collections.emptyList());
+
+    // event name -> subscribers without a device criterion
+    private final Map<String, List<EventSubscriber>> anyDevice = new HashMap<>();
+    // event name -> device -> subscribers
+    private final Map<String, Map<String, List<EventSubscriber>>> byDevice = new HashMap<>();
+
+    SubscriptionIndex(Collection<EventSubscriber> subscribers) {
+        for (EventSubscriber subscriber : subscribers) {
+            EventFilter filter = subscriber.filter();
+            for (String type : EventFilter.TYPES) {
+                if (!filter.acceptsType(type)) {
+                    continue;
+                }
+                if (filter.devices == null) {
+                    anyDevice.computeIfAbsent(type, k -> new ArrayList<>()).add(subscriber);
+                    continue;
+                }
+                Map<String, List<EventSubscriber>> devices = byDevice.computeIfAbsent(type, k -> new HashMap<>());
+                for (String device : filter.devices) {
+                    devices.computeIfAbsent(device, k -> new ArrayList<>()).add(subscriber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the subscribers which may be interested in an event.
+     *
+     * @param message event
+     * @return candidate subscribers, each one once
+     */
+    Collection<EventSubscriber> lookup(EventMessage message) {
+        List<EventSubscriber> any = anyDevice.getOrDefault(message.name, Collections.emptyList());
+        Map<String, List<EventSubscriber>> devices = byDevice.get(message.name);
+        if (devices == null) {
+            return any;
+        }
+        Set<EventSubscriber> candidates = new HashSet<>(any);
+        for (EventMessage.Part part : message.parts) {
+            for (String device : part.devices) {
+                candidates.addAll(devices.getOrDefault(device, Collections.emptyList()));
+            }
+        }
+        return candidates;
+    }
+}
@@ -0,0 +1,155 @@
+package org.sdnlab.routingrest;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+
+import org.sdnlab.routingrest.data.DeviceDto;
+import org.sdnlab.routingrest.data.HostDto;
+import org.sdnlab.routingrest.data.LinkDto;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Immutable topology snapshot, holding the elements along with their pre-serialized json.
+ * The response bodies are assembled from the element bytes on first use and then shared.
+ */
+public final class TopologyView {
+
+    private final long version;
+
+    private final List<LinkDto> links;
+    private final List<DeviceDto> devices;
+    private final List<HostDto> hosts;
+
+    private final Supplier<byte[]> linksArray;
+    private final Supplier<byte[]> devicesArray;
+    private final Supplier<byte[]> hostsArray;
+
+    private final Supplier<byte[]> topologyJson;
+    private final Supplier<byte[]> linksJson;
+    private final Supplier<byte[]> devicesJson;
+    private final Supplier<byte[]> hostsJson;
+
+    /**
+     * Creates a snapshot, each element list comes with its serialized json in the same order.
+     *
+     * @param version     topology version
+     * @param links       links
+     * @param linkJson    serialized links
+     * @param devices     devices
+     * @param deviceJson  serialized devices
+     * @param hosts       hosts
+     * @param hostJson    serialized hosts
+     */
+    public TopologyView(long version,
+                        List<LinkDto> links, List<byte[]> linkJson,
+                        List<DeviceDto> devices, List<byte[]> deviceJson,
+                        List<HostDto> hosts, List<byte[]> hostJson) {
+        this.version = version;
+        this.links = ImmutableList.copyOf(links);
+        this.devices = ImmutableList.copyOf(devices);
+        this.hosts = ImmutableList.copyOf(hosts);
+
+        List<byte[]> linkElements = ImmutableList.copyOf(linkJson);
+        List<byte[]> deviceElements = ImmutableList.copyOf(deviceJson);
+        List<byte[]> hostElements = ImmutableList.copyOf(hostJson);
+        linksArray = Suppliers.memoize(() -> array(linkElements));
+        devicesArray = Suppliers.memoize(() -> array(deviceElements));
+        hostsArray = Suppliers.memoize(() -> array(hostElements));
+
+        topologyJson = Suppliers.memoize(() -> object(new String[]{"links", "devices", "hosts"},
+                linksArray.get(), devicesArray.get(), hostsArray.get()));
+        linksJson = Suppliers.memoize(() -> object(new String[]{"links"}, linksArray.get()));
+        devicesJson = Suppliers.memoize(() -> object(new String[]{"devices"}, devicesArray.get()));
+        hostsJson = Suppliers.memoize(() -> object(new String[]{"hosts"}, hostsArray.get()));
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public List<LinkDto> links() {
+        return links;
+    }
+
+    public List<DeviceDto> devices() {
+        return devices;
+    }
+
+    public List<HostDto> hosts() {
+        return hosts;
+    }
+
+    /**
+     * Gets the json of the whole topology, {"links": [...], "devices": [...], "hosts": [...]}.
+     * The returned array is shared and must not be modified.
+     *
+     * @return json bytes
+     */
+    public byte[] topologyJson() {
+        return topologyJson.get();
+    }
+
+    /**
+     * Gets the json of the links, {"links": [...]}.
+     * The returned array is shared and must not be modified.
+     *
+     * @return json bytes
+     */
+    public byte[] linksJson() {
+        return linksJson.get();
+    }
+
+    /**
+     * Gets the json of the devices, {"devices": [...]}.
+     * The returned array is shared and must not be modified.
+     *
+     * @return json bytes
+     */
+    public byte[] devicesJson() {
+        return devicesJson.get();
+    }
+
+    /**
+     * Gets the json of the hosts, {"hosts": [...]}.
+     * The returned array is shared and must not be modified.
+     *
+     * @return json bytes
+     */
+    public byte[] hostsJson() {
+        return hostsJson.get();
+    }
+
+    private static byte[] array(List<byte[]> elements) {
+        int size = 2 + Math.max(elements.size() - 1, 0);
+        for (byte[] element : elements) {
+            size += element.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        out.write('[');
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            byte[] element = elements.get(i);
+            out.write(element, 0, element.length);
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    private static byte[] object(String[] names, byte[]... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('{');
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = ((i > 0 ? ",\"" : "\"") + names[i] + "\":").getBytes(StandardCharsets.UTF_8);
+            out.write(name, 0, name.length);
+            out.write(values[i], 0, values[i].length);
+        }
+        out.write('}');
+        return out.toByteArray();
+    }
+}
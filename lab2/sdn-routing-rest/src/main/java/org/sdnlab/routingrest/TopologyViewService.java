@@ -0,0 +1,26 @@
+package org.sdnlab.routingrest;
+
+import javax.annotation.Nullable;
+
+import org.sdnlab.routingrest.data.TopologyChangesDto;
+
+public interface TopologyViewService {
+
+    /**
+     * Get the latest topology snapshot. The snapshot is immutable and shared between readers,
+     * it is rebuilt from the cached elements only after the topology has changed.
+     *
+     * @return current topology view
+     */
+    TopologyView getView();
+
+    /**
+     * Get the changes made to the topology after a version. Several changes to the same element
+     * are folded into the latest one.
+     *
+     * @param since version known by the caller, usually from a view or previous changes
+     * @return the changes, or null when the version is no longer covered by the change log
+     */
+    @Nullable
+    TopologyChangesDto getChanges(long since);
+}
@@ -17,25 +17,23 @@ package org.sdnlab.routingrest;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import org.onosproject.net.Device;
-import org.onosproject.net.Host;
-import org.onosproject.net.Link;
-import org.onosproject.net.device.DeviceService;
-import org.onosproject.net.host.HostService;
-import org.onosproject.net.link.LinkService;
 import org.onosproject.rest.AbstractWebResource;
-import org.sdnlab.routingrest.data.DeviceDto;
-import org.sdnlab.routingrest.data.HostDto;
-import org.sdnlab.routingrest.data.LinkDto;
+import org.sdnlab.routingrest.data.TopologyChangesDto;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
 
 /**
  * Topology web resource. (include hosts)
@@ -43,9 +41,13 @@ import javax.ws.rs.core.Response;
 @Path("topology")
 public class TopologyWebResource extends AbstractWebResource {
 
-    private final LinkService linkService = getService(LinkService.class);
-    private final DeviceService deviceService = getService(DeviceService.class);
-    private final HostService hostService = getService(HostService.class);
+    private static final List<Variant> VARIANTS = Variant.mediaTypes(
+            MediaType.APPLICATION_JSON_TYPE, SmileProvider.APPLICATION_SMILE_TYPE).build();
+
+    private final TopologyViewService topologyViewService = getService(TopologyViewService.class);
+
+    @Context
+    private Request request;
 
     /**
      * Gets all topology information.
@@ -53,17 +55,15 @@ public class TopologyWebResource extends AbstractWebResource {
      * @return a json with links, devices, hosts
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
     public Response getTopology() {
-        List<LinkDto> links = getLinkDtos();
-        List<DeviceDto> devices = getDeviceDtos();
-        List<HostDto> hosts = getHostDtos();
-
-        ObjectNode node = mapper().createObjectNode();
-        node.putPOJO("links", links);
-        node.putPOJO("devices", devices);
-        node.putPOJO("hosts", hosts);
-        return ok(node).build();
+        return render(TopologyView::topologyJson, view -> {
+            ObjectNode node = mapper().createObjectNode();
+            node.putPOJO("links", view.links());
+            node.putPOJO("devices", view.devices());
+            node.putPOJO("hosts", view.hosts());
+            return node;
+        });
     }
 
     /**
@@ -73,13 +73,13 @@ public class TopologyWebResource extends AbstractWebResource {
      */
     @GET
     @Path("links")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
     public Response getLinks() {
-        List<LinkDto> links = getLinkDtos();
-
-        ObjectNode node = mapper().createObjectNode();
-        node.putPOJO("links", links);
-        return ok(node).build();
+        return render(TopologyView::linksJson, view -> {
+            ObjectNode node = mapper().createObjectNode();
+            node.putPOJO("links", view.links());
+            return node;
+        });
     }
 
     /**
@@ -89,13 +89,13 @@ public class TopologyWebResource extends AbstractWebResource {
      */
     @GET
     @Path("devices")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
     public Response getDevices() {
-        List<DeviceDto> devices = getDeviceDtos();
-
-        ObjectNode node = mapper().createObjectNode();
-        node.putPOJO("devices", devices);
-        return ok(node).build();
+        return render(TopologyView::devicesJson, view -> {
+            ObjectNode node = mapper().createObjectNode();
+            node.putPOJO("devices", view.devices());
+            return node;
+        });
     }
 
     /**
@@ -105,36 +105,66 @@ public class TopologyWebResource extends AbstractWebResource {
      */
     @GET
     @Path("hosts")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
     public Response getHosts() {
-        List<HostDto> hosts = getHostDtos();
-
-        ObjectNode node = mapper().createObjectNode();
-        node.putPOJO("hosts", hosts);
-        return ok(node).build();
+        return render(TopologyView::hostsJson, view -> {
+            ObjectNode node = mapper().createObjectNode();
+            node.putPOJO("hosts", view.hosts());
+            return node;
+        });
     }
 
-    private List<LinkDto> getLinkDtos() {
-        List<LinkDto> links = new ArrayList<>();
-        for (Link link : linkService.getLinks()) {
-            links.add(new LinkDto(link));
+    /**
+     * Gets the topology changes after a version, as the latest state of every changed element.
+     * Falls back to the whole topology when the version is too old to be answered incrementally.
+     *
+     * @param since version from a previous response, the ETag of the topology or the version of changes
+     * @return a json with the new version and either the changes or links, devices, hosts
+     */
+    @GET
+    @Path("changes")
+    @Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+    public Response getChanges(@QueryParam("since") String since) {
+        long version;
+        try {
+            version = Long.parseUnsignedLong(since, 16);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("since must be a hex version");
         }
-        return links;
-    }
 
-    private List<DeviceDto> getDeviceDtos() {
-        List<DeviceDto> devices = new ArrayList<>();
-        for (Device device : deviceService.getDevices()) {
-            devices.add(new DeviceDto(device));
+        ObjectNode node = mapper().createObjectNode();
+        TopologyChangesDto changes = topologyViewService.getChanges(version);
+        if (changes != null) {
+            node.put("version", Long.toHexString(changes.version));
+            node.put("full", false);
+            node.putPOJO("changes", changes.changes);
+        } else {
+            TopologyView view = topologyViewService.getView();
+            node.put("version", Long.toHexString(view.version()));
+            node.put("full", true);
+            node.putPOJO("links", view.links());
+            node.putPOJO("devices", view.devices());
+            node.putPOJO("hosts", view.hosts());
         }
-        return devices;
+        return ok(node).build();
     }
 
-    private List<HostDto> getHostDtos() {
-        List<HostDto> hosts = new ArrayList<>();
-        for (Host host : hostService.getHosts()) {
-            hosts.add(new HostDto(host));
+    // json is served from the cached bytes of the view, other encodings are serialized per request
+    private Response render(Function<TopologyView, byte[]> json, Function<TopologyView, ObjectNode> node) {
+        TopologyView view = topologyViewService.getView();
+        EntityTag tag = new EntityTag(Long.toHexString(view.version()));
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.tag(tag).build();
+        }
+
+        Variant variant = request.selectVariant(VARIANTS);
+        Response.ResponseBuilder builder;
+        if (variant != null && SmileProvider.isSmile(variant.getMediaType())) {
+            builder = Response.ok(node.apply(view), SmileProvider.APPLICATION_SMILE_TYPE);
+        } else {
+            builder = Response.ok(json.apply(view), MediaType.APPLICATION_JSON_TYPE);
         }
-        return hosts;
+        return builder.tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
     }
 }
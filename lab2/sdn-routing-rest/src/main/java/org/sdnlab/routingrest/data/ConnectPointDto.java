@@ -2,6 +2,8 @@ package org.sdnlab.routingrest.data;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Objects;
+
 import javax.annotation.Nullable;
 
 import org.onosproject.net.ConnectPoint;
@@ -42,4 +44,21 @@ public class ConnectPointDto {
         checkNotNull(port);
         return PortNumber.portNumber(port);
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConnectPointDto)) {
+            return false;
+        }
+        ConnectPointDto that = (ConnectPointDto) obj;
+        return Objects.equals(id, that.id) && Objects.equals(port, that.port);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, port);
+    }
 }
@@ -0,0 +1,19 @@
+package org.sdnlab.routingrest.data;
+
+public class LinkLoadDto {
+    public final ConnectPointDto src;
+    public final ConnectPointDto dst;
+
+    // transmitted bits over the speed of the source port, 0 when the speed is unknown
+    public final double utilization;
+
+    // packets dropped per second by the source port on transmit and the destination port on receive
+    public final double dropRate;
+
+    public LinkLoadDto(ConnectPointDto src, ConnectPointDto dst, double utilization, double dropRate) {
+        this.src = src;
+        this.dst = dst;
+        this.utilization = utilization;
+        this.dropRate = dropRate;
+    }
+}
@@ -1,6 +1,7 @@
 package org.sdnlab.routingrest.data;
 
 import java.util.List;
+import java.util.Objects;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -21,4 +22,20 @@ public class PathDto {
     public ConnectPointDto dst() {
         return points.get(points.size() - 1);
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PathDto)) {
+            return false;
+        }
+        return Objects.equals(points, ((PathDto) obj).points);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(points);
+    }
 }
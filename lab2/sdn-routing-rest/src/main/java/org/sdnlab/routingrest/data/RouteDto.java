@@ -6,9 +6,18 @@ import javax.annotation.Nullable;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class RouteDto {
+    public enum State {
+        // rules pushed, not all of them confirmed by the devices yet
+        PENDING,
+        INSTALLED,
+        // a rule was rejected or removed from its device
+        FAILED
+    }
+
     @Nullable
     public final Long id;
 
@@ -16,6 +25,16 @@ public class RouteDto {
     @Nullable
     public final PathDto path;
 
+    // equal-cost paths between the same hosts, load balanced together with the main path
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @Nullable
+    public final List<PathDto> alternatives;
+
+    // installation state of a route from the route table, never read from requests
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Nullable
+    public final State state;
+
     @JsonProperty("points")
     public List<ConnectPointDto> points() {
         return this.path != null ? this.path.points : null;
@@ -24,16 +43,40 @@ public class RouteDto {
     public RouteDto(Long id) {
         this.id = id;
         this.path = null;
+        this.alternatives = null;
+        this.state = null;
     }
 
     @JsonCreator
-    public RouteDto(@JsonProperty("id") Long id, @JsonProperty("points") List<ConnectPointDto> points) {
+    public RouteDto(@JsonProperty("id") Long id, @JsonProperty("points") List<ConnectPointDto> points,
+            @JsonProperty("alternatives") List<PathDto> alternatives) {
         this.id = id;
         this.path = new PathDto(points);
+        this.alternatives = alternatives;
+        this.state = null;
     }
 
     public RouteDto(Long id, PathDto path) {
+        this(id, path, null);
+    }
+
+    public RouteDto(Long id, PathDto path, List<PathDto> alternatives) {
+        this(id, path, alternatives, null);
+    }
+
+    private RouteDto(Long id, PathDto path, List<PathDto> alternatives, State state) {
         this.id = id;
         this.path = path;
+        this.alternatives = alternatives;
+        this.state = state;
+    }
+
+    public RouteDto withState(State state) {
+        return new RouteDto(id, path, alternatives, state);
+    }
+
+    @JsonIgnore
+    public boolean isMultipath() {
+        return alternatives != null && !alternatives.isEmpty();
     }
 }
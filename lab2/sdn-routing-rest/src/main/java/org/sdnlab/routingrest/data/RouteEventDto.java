@@ -0,0 +1,19 @@
+package org.sdnlab.routingrest.data;
+
+import org.sdnlab.routingrest.RouteEvent;
+
+public class RouteEventDto {
+    public final String type;
+    public final long time;
+
+    public final long id;
+    public final RouteDto.State state;
+
+    public RouteEventDto(RouteEvent event) {
+        type = event.type().name();
+        time = event.time();
+
+        id = event.subject().id;
+        state = event.subject().state;
+    }
+}
@@ -0,0 +1,43 @@
+package org.sdnlab.routingrest.data;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RouteJobDto {
+    public enum Type {
+        ADD, UPDATE, DELETE
+    }
+
+    public enum State {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+
+    public final long id;
+    public final Type type;
+    public final State state;
+
+    public final int total;
+    public final int completed;
+
+    @Nullable
+    public final String error;
+
+    // route ids of an ADD job, in the order of the request
+    @Nullable
+    public final List<RouteDto> routes;
+
+    public RouteJobDto(long id, Type type, State state, int total, int completed, String error,
+            List<RouteDto> routes) {
+        this.id = id;
+        this.type = type;
+        this.state = state;
+        this.total = total;
+        this.completed = completed;
+        this.error = error;
+        this.routes = routes;
+    }
+}
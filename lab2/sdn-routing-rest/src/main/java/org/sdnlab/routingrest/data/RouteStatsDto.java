@@ -0,0 +1,47 @@
+package org.sdnlab.routingrest.data;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RouteStatsDto {
+    public static class Sample {
+        // end of the interval, in milliseconds since the epoch
+        public final long time;
+        public final double packetRate;
+        public final double byteRate;
+
+        public Sample(long time, double packetRate, double byteRate) {
+            this.time = time;
+            this.packetRate = packetRate;
+            this.byteRate = byteRate;
+        }
+    }
+
+    public final long id;
+
+    // counters of the ingress rule, they restart when the route is updated
+    public final long packets;
+    public final long bytes;
+
+    // per second, over the last poll interval
+    public final double packetRate;
+    public final double byteRate;
+
+    // rates of the recent intervals, oldest first
+    @Nullable
+    public final List<Sample> samples;
+
+    public RouteStatsDto(long id, long packets, long bytes, double packetRate, double byteRate,
+            List<Sample> samples) {
+        this.id = id;
+        this.packets = packets;
+        this.bytes = bytes;
+        this.packetRate = packetRate;
+        this.byteRate = byteRate;
+        this.samples = samples;
+    }
+}
@@ -0,0 +1,21 @@
+package org.sdnlab.routingrest.data;
+
+import java.util.List;
+
+public class RouteSyncDto {
+    public final int added;
+    public final int updated;
+    public final int removed;
+    public final int unchanged;
+
+    // route ids in the order of the desired routes
+    public final List<RouteDto> routes;
+
+    public RouteSyncDto(int added, int updated, int removed, int unchanged, List<RouteDto> routes) {
+        this.added = added;
+        this.updated = updated;
+        this.removed = removed;
+        this.unchanged = unchanged;
+        this.routes = routes;
+    }
+}
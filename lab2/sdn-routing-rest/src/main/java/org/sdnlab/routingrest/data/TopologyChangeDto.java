@@ -0,0 +1,29 @@
+package org.sdnlab.routingrest.data;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TopologyChangeDto {
+    public enum Type {
+        PUT, REMOVE
+    }
+
+    public final Type type;
+
+    // exactly one element is set, for REMOVE it is the last known state of the element
+    @Nullable
+    public final LinkDto link;
+    @Nullable
+    public final DeviceDto device;
+    @Nullable
+    public final HostDto host;
+
+    public TopologyChangeDto(Type type, LinkDto link, DeviceDto device, HostDto host) {
+        this.type = type;
+        this.link = link;
+        this.device = device;
+        this.host = host;
+    }
+}
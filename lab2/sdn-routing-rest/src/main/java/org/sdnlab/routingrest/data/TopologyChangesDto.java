@@ -0,0 +1,16 @@
+package org.sdnlab.routingrest.data;
+
+import java.util.List;
+
+public class TopologyChangesDto {
+    // topology version the changes lead to
+    public final long version;
+
+    // the latest change of every element modified after the requested version, oldest first
+    public final List<TopologyChangeDto> changes;
+
+    public TopologyChangesDto(long version, List<TopologyChangeDto> changes) {
+        this.version = version;
+        this.changes = changes;
+    }
+}
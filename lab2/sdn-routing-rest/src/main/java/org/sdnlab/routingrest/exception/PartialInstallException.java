@@ -0,0 +1,37 @@
+package org.sdnlab.routingrest.exception;
+
+import java.util.List;
+
+import org.sdnlab.routingrest.data.RouteDto;
+
+/**
+ * Thrown when a batch of routes fails part-way. The routes installed before the failure
+ * are kept, and their ids are carried so that the client can tell what is in the table.
+ */
+public class PartialInstallException extends RuntimeException {
+    private final List<RouteDto> installed;
+
+    /**
+     * Constructs a <code>PartialInstallException</code> with the failure
+     * that stopped the batch.
+     *
+     * @param cause     the failure that stopped the batch.
+     * @param installed route ids of the routes installed before the failure,
+     *                  in the order of the batch.
+     */
+    public PartialInstallException(Throwable cause, List<RouteDto> installed) {
+        super(cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName(), cause);
+        this.installed = installed;
+    }
+
+    /**
+     * Returns the routes installed before the failure.
+     *
+     * @return route ids, in the order of the batch
+     */
+    public List<RouteDto> installed() {
+        return installed;
+    }
+
+    private static final long serialVersionUID = 5061493874023671852L;
+}
@@ -0,0 +1,181 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.link.LinkEvent;
+import org.onosproject.net.link.LinkListener;
+import org.onosproject.net.link.LinkService;
+import org.sdnlab.routingrest.data.ConnectPointDto;
+import org.sdnlab.routingrest.data.PathDto;
+import org.sdnlab.routingrest.exception.InvalidRouteException;
+
+/**
+ * Peers of the connect points of the active links and locations of the hosts, kept from the link and
+ * host events, so a path is checked in one lookup per hop without querying the link or host services.
+ */
+final class AdjacencyIndex {
+
+    // source of each active link to its destination
+    private final Map<ConnectPoint, ConnectPoint> peers = new ConcurrentHashMap<>();
+    // plain connect points, a host location also compares its discovery time
+    private final Map<HostId, Set<ConnectPoint>> locations = new ConcurrentHashMap<>();
+
+    private final LinkListener linkListener = new InternalLinkListener();
+    private final HostListener hostListener = new InternalHostListener();
+
+    LinkListener linkListener() {
+        return linkListener;
+    }
+
+    HostListener hostListener() {
+        return hostListener;
+    }
+
+    /**
+     * Loads the current links and hosts, with the listeners already added so no change is missed.
+     * The events wait on the monitor while the services are read and loaded, so an event is
+     * applied either before the read, which already reflects it, or after the load, and a link
+     * or host removed meanwhile cannot be brought back by an older snapshot.
+     */
+    synchronized void seed(LinkService linkService, HostService hostService) {
+        linkService.getLinks().forEach(this::putLink);
+        hostService.getHosts().forEach(this::putHost);
+    }
+
+    /**
+     * @return copy of the active links, source to destination
+     */
+    Map<ConnectPoint, ConnectPoint> links() {
+        return new HashMap<>(peers);
+    }
+
+    /**
+     * @return copy of the host locations, the first one by name for hosts attached at several points
+     */
+    Map<HostId, ConnectPoint> hosts() {
+        Map<HostId, ConnectPoint> hosts = new HashMap<>();
+        locations.forEach((id, points) -> points.stream()
+                .min(Comparator.comparing(ConnectPoint::toString))
+                .ifPresent(point -> hosts.put(id, point)));
+        return hosts;
+    }
+
+    /**
+     * Checks that the hosts are attached where the path starts and ends and that an active link joins
+     * every device to the next one.
+     *
+     * @param path path from host to host
+     * @throws InvalidRouteException the path does not match the topology
+     */
+    void validate(PathDto path) throws InvalidRouteException {
+        List<ConnectPointDto> points = path.points;
+        if (points == null || points.size() < 4 || points.size() % 2 != 0) {
+            throw new InvalidRouteException("A path should be a host, pairs of device ports and a host.");
+        }
+        for (int i = 1; i < points.size() - 1; i++) {
+            if (points.get(i).port == null) {
+                throw new InvalidRouteException("Each point between the hosts should have a port.");
+            }
+        }
+
+        int last = points.size() - 1;
+        Set<ConnectPoint> src = locations.get(points.get(0).hostId());
+        Set<ConnectPoint> dst = locations.get(points.get(last).hostId());
+        if (src == null || dst == null) {
+            throw new InvalidRouteException("Source/Destination host is not found.");
+        }
+        if (!src.contains(connectPoint(points.get(1))) || !dst.contains(connectPoint(points.get(last - 1)))) {
+            throw new InvalidRouteException("The path should start and end at the locations of the hosts.");
+        }
+
+        // the egress of a device, at an even index, is linked to the ingress of the next device
+        for (int i = 2; i < last - 1; i += 2) {
+            ConnectPoint peer = peers.get(connectPoint(points.get(i)));
+            if (peer == null || !peer.equals(connectPoint(points.get(i + 1)))) {
+                throw new InvalidRouteException("No active link from " + points.get(i).id + "/"
+                        + points.get(i).port + " to " + points.get(i + 1).id + "/" + points.get(i + 1).port + ".");
+            }
+        }
+    }
+
+    private static ConnectPoint connectPoint(ConnectPointDto point) {
+        return new ConnectPoint(point.deviceId(), point.portNumber());
+    }
+
+    private void putLink(Link link) {
+        if (link.state() == Link.State.ACTIVE) {
+            peers.put(link.src(), link.dst());
+        } else {
+            peers.remove(link.src(), link.dst());
+        }
+    }
+
+    private void putHost(Host host) {
+        Set<ConnectPoint> points = new HashSet<>();
+        for (HostLocation location : host.locations()) {
+            points.add(new ConnectPoint(location.deviceId(), location.port()));
+        }
+        locations.put(host.id(), points);
+    }
+
+    private class InternalLinkListener implements LinkListener {
+        @Override
+        public void event(LinkEvent event) {
+            synchronized (AdjacencyIndex.this) {
+                update(event);
+            }
+        }
+
+        private void update(LinkEvent event) {
+            switch (event.type()) {
+                case LINK_ADDED:
+                case LINK_UPDATED:
+                    putLink(event.subject());
+                    break;
+                case LINK_REMOVED:
+                    peers.remove(event.subject().src(), event.subject().dst());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            synchronized (AdjacencyIndex.this) {
+                update(event);
+            }
+        }
+
+        private void update(HostEvent event) {
+            switch (event.type()) {
+                case HOST_ADDED:
+                case HOST_UPDATED:
+                case HOST_MOVED:
+                    putHost(event.subject());
+                    break;
+                case HOST_REMOVED:
+                    locations.remove(event.subject().id());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupListener;
+import org.onosproject.net.group.GroupService;
+import org.sdnlab.routingrest.exception.InvalidRouteException;
+
+/**
+ * Adds groups and completes once the devices report them added.
+ * A switch rejects a flow rule pointing at a group it does not have yet, so the rules of a route
+ * are only pushed after its groups are confirmed.
+ */
+final class GroupInstaller implements GroupListener {
+
+    private final GroupService groupService;
+
+    // groups waiting for their confirmation, by device and key
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    GroupInstaller(GroupService groupService) {
+        this.groupService = groupService;
+    }
+
+    /**
+     * Adds the groups missing on the devices.
+     *
+     * @param groups groups of a route
+     * @return completed when every group is on its device, failed if a device rejects one
+     */
+    CompletableFuture<Void> add(Collection<GroupDescription> groups) {
+        List<CompletableFuture<Void>> added = new ArrayList<>(groups.size());
+        for (GroupDescription group : groups) {
+            String key = key(group.deviceId(), group.appCookie());
+            // registered before looking the group up, so a confirmation in between is not missed
+            CompletableFuture<Void> future = pending.computeIfAbsent(key, k -> new CompletableFuture<>());
+            added.add(future);
+
+            Group existing = groupService.getGroup(group.deviceId(), group.appCookie());
+            if (existing == null) {
+                groupService.addGroup(group);
+            } else if (existing.state() == Group.GroupState.ADDED) {
+                complete(key, null);
+            }
+        }
+        return CompletableFuture.allOf(added.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Fails every pending addition, e.g. when the app is stopped.
+     */
+    void clear() {
+        pending.keySet().forEach(key -> complete(key, new InvalidRouteException("The group is no longer awaited.")));
+    }
+
+    @Override
+    public void event(GroupEvent event) {
+        Group group = event.subject();
+        String key = key(group.deviceId(), group.appCookie());
+        switch (event.type()) {
+            case GROUP_ADDED:
+                complete(key, null);
+                break;
+            case GROUP_ADD_FAILED:
+                complete(key, new InvalidRouteException("Device " + group.deviceId() + " rejected a group."));
+                break;
+            case GROUP_REMOVED:
+                complete(key, new InvalidRouteException("The group was removed from " + group.deviceId() + "."));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void complete(String key, Exception error) {
+        CompletableFuture<Void> future = pending.remove(key);
+        if (future == null) {
+            return;
+        }
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(null);
+        }
+    }
+
+    private static String key(DeviceId deviceId, GroupKey appCookie) {
+        return deviceId + "/" + appCookie;
+    }
+}
@@ -6,8 +6,9 @@ import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.edge.EdgePortEvent;
 import org.onosproject.net.edge.EdgePortListener;
 import org.onosproject.net.edge.EdgePortService;
-import org.onosproject.net.neighbour.DefaultNeighbourMessageHandler;
-import org.onosproject.net.neighbour.NeighbourMessageHandler;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostService;
 import org.onosproject.net.neighbour.NeighbourResolutionService;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
@@ -27,6 +28,9 @@ public class HostDiscovery {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected NeighbourResolutionService neighbourResolutionService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected HostService hostService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected CoreService coreService;
 
@@ -35,12 +39,17 @@ public class HostDiscovery {
     private ApplicationId appId;
 
     private InternalEdgeListener edgeListener = new InternalEdgeListener();
-    private NeighbourMessageHandler neighbourMessageHandler = new DefaultNeighbourMessageHandler();
+    private InternalHostListener hostListener = new InternalHostListener();
+    private ProxyNeighbourMessageHandler neighbourMessageHandler = new ProxyNeighbourMessageHandler();
 
     @Activate
     protected void activate(ComponentContext context) {
         appId = coreService.registerApplication("org.sdnlab.routingrest");
 
+        // index the known hosts before answering any request, listening first so no change is missed
+        hostService.addListener(hostListener);
+        neighbourMessageHandler.seed(hostService);
+
         edgeService.addListener(edgeListener);
         // listen on connected edges
         edgeService.getEdgePoints().forEach(this::addDefault);
@@ -51,6 +60,8 @@ public class HostDiscovery {
     protected void deactivate() {
         edgeService.removeListener(edgeListener);
         neighbourResolutionService.unregisterNeighbourHandlers(appId);
+        hostService.removeListener(hostListener);
+        neighbourMessageHandler.clear();
         log.info("HostDiscovery Stopped");
     }
 
@@ -77,4 +88,27 @@ public class HostDiscovery {
             }
         }
     }
+
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            switch (event.type()) {
+                case HOST_ADDED:
+                    neighbourMessageHandler.addHost(event.subject());
+                    break;
+                case HOST_UPDATED:
+                case HOST_MOVED:
+                    if (event.prevSubject() != null) {
+                        neighbourMessageHandler.removeHost(event.prevSubject());
+                    }
+                    neighbourMessageHandler.addHost(event.subject());
+                    break;
+                case HOST_REMOVED:
+                    neighbourMessageHandler.removeHost(event.subject());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.onlab.graph.ScalarWeight;
+import org.onlab.graph.Weight;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.topology.LinkWeigher;
+import org.onosproject.net.topology.TopologyEdge;
+import org.sdnlab.routingrest.data.LinkLoadDto;
+
+/**
+ * Weighs each link by one hop plus a cost growing with its utilization and its drops.
+ * Without loads every link weighs one hop, i.e. paths are chosen by hop count.
+ */
+final class LinkLoadWeigher implements LinkWeigher {
+
+    // cost of a fully utilized link, in hops
+    private static final double LOAD_COST = 4;
+    // cost of a link dropping packets, in hops
+    private static final double DROP_COST = 2;
+
+    private final Map<Link, LinkLoadDto> loads;
+    private final Set<Link> excluded;
+
+    LinkLoadWeigher(Map<Link, LinkLoadDto> loads) {
+        this(loads, Collections.emptySet());
+    }
+
+    /**
+     * @param loads    loads of the links, missing links weigh one hop
+     * @param excluded links never used, e.g. the hot link a route is moved off
+     */
+    LinkLoadWeigher(Map<Link, LinkLoadDto> loads, Set<Link> excluded) {
+        this.loads = loads;
+        this.excluded = excluded;
+    }
+
+    @Override
+    public Weight getInitialWeight() {
+        return ScalarWeight.toWeight(0);
+    }
+
+    @Override
+    public Weight getNonViableWeight() {
+        return ScalarWeight.NON_VIABLE_WEIGHT;
+    }
+
+    @Override
+    public Weight weight(TopologyEdge edge) {
+        double cost = cost(edge.link());
+        return Double.isInfinite(cost) ? getNonViableWeight() : ScalarWeight.toWeight(cost);
+    }
+
+    /**
+     * @return sum of the link costs, infinite if a link is not viable
+     */
+    double cost(Path path) {
+        double cost = 0;
+        for (Link link : path.links()) {
+            cost += cost(link);
+        }
+        return cost;
+    }
+
+    private double cost(Link link) {
+        if (link.state() == Link.State.INACTIVE || excluded.contains(link)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        LinkLoadDto load = loads.get(link);
+        if (load == null) {
+            return 1;
+        }
+        double cost = 1 + LOAD_COST * Math.min(load.utilization, 1);
+        if (load.dropRate > 0) {
+            cost += DROP_COST;
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,30 @@
+package org.sdnlab.routingrest.impl;
+
+public final class OsgiPropertyConstants {
+    static final String ROUTE_COMPILATION = "routeCompilation";
+    static final String ROUTE_COMPILATION_DEFAULT = "PER_ROUTE";
+
+    static final String PERSIST_ROUTES = "persistRoutes";
+    static final boolean PERSIST_ROUTES_DEFAULT = true;
+
+    static final String ROUTE_LOG_PATH = "routeLogPath";
+    static final String ROUTE_LOG_PATH_DEFAULT = "";
+
+    static final String STATS_POLL_INTERVAL = "statsPollInterval";
+    static final int STATS_POLL_INTERVAL_DEFAULT = 5;
+
+    static final String CONGESTION_AWARE_PATHS = "congestionAwarePaths";
+    static final boolean CONGESTION_AWARE_PATHS_DEFAULT = true;
+
+    static final String REBALANCE_INTERVAL = "rebalanceInterval";
+    static final int REBALANCE_INTERVAL_DEFAULT = 0;
+
+    static final String REBALANCE_THRESHOLD = "rebalanceThreshold";
+    static final int REBALANCE_THRESHOLD_DEFAULT = 80;
+
+    static final String REACTIVE_ROUTING = "reactiveRouting";
+    static final boolean REACTIVE_ROUTING_DEFAULT = false;
+
+    private OsgiPropertyConstants() {
+    }
+}
@@ -0,0 +1,155 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.onosproject.event.Event;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+import org.onosproject.net.Path;
+import org.onosproject.net.link.LinkEvent;
+import org.onosproject.net.topology.LinkWeigher;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.net.topology.TopologyListener;
+import org.onosproject.net.topology.TopologyService;
+
+/**
+ * The k shortest paths by hop count of each device pair, computed on the first lookup.
+ * A link going down only drops the pairs with a cached path over it; a new link may shorten
+ * any path and drops every pair.
+ */
+final class PathCache implements TopologyListener {
+
+    private static final LinkWeigher HOPS = new LinkLoadWeigher(Collections.emptyMap());
+
+    private final TopologyService topologyService;
+    private final int k;
+
+    // guarded by this
+    private final Map<DevicePair, List<Path>> paths = new HashMap<>();
+    // guarded by this, pairs with a cached path over each link
+    private final Map<LinkKey, Set<DevicePair>> users = new HashMap<>();
+    // guarded by this, time of the topology of the last invalidation, paths of older topologies are not cached
+    private long version;
+
+    private static final class DevicePair {
+        final DeviceId src;
+        final DeviceId dst;
+
+        DevicePair(DeviceId src, DeviceId dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DevicePair)) {
+                return false;
+            }
+            DevicePair that = (DevicePair) obj;
+            return src.equals(that.src) && dst.equals(that.dst);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(src, dst);
+        }
+    }
+
+    PathCache(TopologyService topologyService, int k) {
+        this.topologyService = topologyService;
+        this.k = k;
+    }
+
+    /**
+     * Gets the k shortest paths between two devices.
+     *
+     * @return paths ordered by hop count, empty when the devices are not connected
+     */
+    List<Path> paths(DeviceId src, DeviceId dst) {
+        DevicePair pair = new DevicePair(src, dst);
+        synchronized (this) {
+            List<Path> cached = paths.get(pair);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // searched without the lock, concurrent misses of the same pair compute the same paths
+        Topology topology = topologyService.currentTopology();
+        List<Path> computed = topologyService.getKShortestPaths(topology, src, dst, HOPS)
+                .limit(k)
+                .collect(Collectors.toList());
+
+        synchronized (this) {
+            if (topology.time() >= version && !paths.containsKey(pair)) {
+                paths.put(pair, Collections.unmodifiableList(computed));
+                for (Path path : computed) {
+                    for (Link link : path.links()) {
+                        users.computeIfAbsent(LinkKey.linkKey(link), key -> new HashSet<>()).add(pair);
+                    }
+                }
+            }
+        }
+        return computed;
+    }
+
+    synchronized void clear() {
+        paths.clear();
+        users.clear();
+    }
+
+    @Override
+    public synchronized void event(TopologyEvent event) {
+        version = Math.max(version, event.subject().time());
+        List<Event> reasons = event.reasons();
+        if (reasons == null || reasons.isEmpty()) {
+            clear();
+            return;
+        }
+        for (Event reason : reasons) {
+            if (!(reason instanceof LinkEvent)) {
+                // devices come and go with their links, which are reported as well
+                continue;
+            }
+            LinkEvent linkEvent = (LinkEvent) reason;
+            Link link = linkEvent.subject();
+            if (linkEvent.type() == LinkEvent.Type.LINK_REMOVED || link.state() == Link.State.INACTIVE) {
+                invalidate(LinkKey.linkKey(link));
+            } else {
+                clear();
+                return;
+            }
+        }
+    }
+
+    private void invalidate(LinkKey link) {
+        Set<DevicePair> pairs = users.remove(link);
+        if (pairs == null) {
+            return;
+        }
+        for (DevicePair pair : pairs) {
+            List<Path> removed = paths.remove(pair);
+            if (removed == null) {
+                continue;
+            }
+            // forget the pair on the other links of its paths
+            for (Path path : removed) {
+                for (Link other : path.links()) {
+                    Set<DevicePair> others = users.get(LinkKey.linkKey(other));
+                    if (others != null && others.remove(pair) && others.isEmpty()) {
+                        users.remove(LinkKey.linkKey(other));
+                    }
+                }
+            }
+        }
+    }
+}
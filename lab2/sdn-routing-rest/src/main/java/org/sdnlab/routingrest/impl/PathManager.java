@@ -0,0 +1,346 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.Port;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.PortStatistics;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.link.LinkService;
+import org.onosproject.net.topology.TopologyService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.sdnlab.routingrest.PathService;
+import org.sdnlab.routingrest.RouteStatisticsService;
+import org.sdnlab.routingrest.RoutingService;
+import org.sdnlab.routingrest.data.ConnectPointDto;
+import org.sdnlab.routingrest.data.LinkLoadDto;
+import org.sdnlab.routingrest.data.PathDto;
+import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.data.RouteStatsDto;
+import org.sdnlab.routingrest.exception.InvalidRouteException;
+import org.sdnlab.routingrest.exception.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.CONGESTION_AWARE_PATHS;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.CONGESTION_AWARE_PATHS_DEFAULT;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.REBALANCE_INTERVAL;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.REBALANCE_INTERVAL_DEFAULT;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.REBALANCE_THRESHOLD;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.REBALANCE_THRESHOLD_DEFAULT;
+
+/**
+ * Computes host to host paths weighted by the link loads and optionally moves the biggest routes
+ * off the links above the utilization threshold.
+ * Loads come from the port delta statistics the devices already report, nothing is polled here.
+ * Candidates are the k shortest paths by hop count of each device pair, cached until a link under them changes.
+ */
+@Component(immediate = true, property = {
+        CONGESTION_AWARE_PATHS + ":Boolean=" + CONGESTION_AWARE_PATHS_DEFAULT,
+        REBALANCE_INTERVAL + ":Integer=" + REBALANCE_INTERVAL_DEFAULT,
+        REBALANCE_THRESHOLD + ":Integer=" + REBALANCE_THRESHOLD_DEFAULT,
+})
+public class PathManager implements PathService {
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService configService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected LinkService linkService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected TopologyService topologyService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected HostService hostService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected RoutingService routingService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected RouteStatisticsService routeStatsService;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /** Weigh the links by their load, otherwise paths are chosen by hop count. */
+    private boolean congestionAwarePaths = CONGESTION_AWARE_PATHS_DEFAULT;
+
+    /** Seconds between two rebalancing rounds, 0 to disable rebalancing. */
+    private int rebalanceInterval = REBALANCE_INTERVAL_DEFAULT;
+
+    /** Utilization of a link, in percent, above which its routes are moved. */
+    private int rebalanceThreshold = REBALANCE_THRESHOLD_DEFAULT;
+
+    // candidate paths per device pair
+    private static final int K_PATHS = 4;
+
+    private PathCache pathCache;
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> rebalancer;
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        pathCache = new PathCache(topologyService, K_PATHS);
+        topologyService.addListener(pathCache);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("sdnlab/routing-rest", "route-rebalancer", log));
+        configService.registerProperties(getClass());
+        modified(context);
+        log.info("PathManager Started");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        Boolean congestionAware = Tools.isPropertyEnabled(properties, CONGESTION_AWARE_PATHS);
+        congestionAwarePaths = congestionAware != null ? congestionAware : CONGESTION_AWARE_PATHS_DEFAULT;
+
+        int interval = Tools.getIntegerProperty(properties, REBALANCE_INTERVAL, REBALANCE_INTERVAL_DEFAULT);
+        rebalanceInterval = Math.max(interval, 0);
+
+        int threshold = Tools.getIntegerProperty(properties, REBALANCE_THRESHOLD, REBALANCE_THRESHOLD_DEFAULT);
+        if (threshold <= 0 || threshold > 100) {
+            log.warn("Invalid {} {}, keeping {}", REBALANCE_THRESHOLD, threshold, rebalanceThreshold);
+        } else {
+            rebalanceThreshold = threshold;
+        }
+
+        if (rebalancer != null) {
+            rebalancer.cancel(false);
+            rebalancer = null;
+        }
+        if (rebalanceInterval > 0) {
+            rebalancer = executor.scheduleWithFixedDelay(this::rebalance, rebalanceInterval, rebalanceInterval,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        configService.unregisterProperties(getClass(), false);
+        executor.shutdownNow();
+        topologyService.removeListener(pathCache);
+        pathCache.clear();
+        log.info("PathManager Stopped");
+    }
+
+    @Override
+    public PathDto getPath(HostId src, HostId dst) throws NotFoundException {
+        Map<Link, LinkLoadDto> loads = congestionAwarePaths ? loads() : Collections.emptyMap();
+        return computePath(src, dst, new LinkLoadWeigher(loads));
+    }
+
+    @Override
+    public List<LinkLoadDto> getLinkLoads() {
+        return new ArrayList<>(loads().values());
+    }
+
+    private PathDto computePath(HostId src, HostId dst, LinkLoadWeigher weigher) throws NotFoundException {
+        Host srcHost = hostService.getHost(src);
+        Host dstHost = hostService.getHost(dst);
+        if (srcHost == null || dstHost == null) {
+            throw new NotFoundException("The host is not found.");
+        }
+        HostLocation srcLocation = srcHost.location();
+        HostLocation dstLocation = dstHost.location();
+
+        List<ConnectPointDto> points = new ArrayList<>();
+        points.add(new ConnectPointDto(src.toString(), null));
+        points.add(new ConnectPointDto(srcLocation));
+        if (!srcLocation.deviceId().equals(dstLocation.deviceId())) {
+            Path path = bestPath(srcLocation.deviceId(), dstLocation.deviceId(), weigher);
+            for (Link link : path.links()) {
+                points.add(new ConnectPointDto(link.src()));
+                points.add(new ConnectPointDto(link.dst()));
+            }
+        }
+        points.add(new ConnectPointDto(dstLocation));
+        points.add(new ConnectPointDto(dst.toString(), null));
+        return new PathDto(points);
+    }
+
+    /**
+     * Ranks the cached k shortest paths by their current cost, the graph is only searched again
+     * when the topology changed under them or every candidate is excluded.
+     */
+    private Path bestPath(DeviceId src, DeviceId dst, LinkLoadWeigher weigher) throws NotFoundException {
+        Path best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (Path path : pathCache.paths(src, dst)) {
+            double cost = weigher.cost(path);
+            if (cost < bestCost) {
+                best = path;
+                bestCost = cost;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        return topologyService.getPaths(topologyService.currentTopology(), src, dst, weigher).stream()
+                .min(Comparator.comparing(Path::weight))
+                .orElseThrow(() -> new NotFoundException("The hosts are not connected."));
+    }
+
+    /**
+     * Loads of the active links from the latest port deltas, read once per device.
+     */
+    private Map<Link, LinkLoadDto> loads() {
+        Map<ConnectPoint, PortStatistics> statistics = new HashMap<>();
+        Set<DeviceId> read = new HashSet<>();
+        Map<Link, LinkLoadDto> loads = new LinkedHashMap<>();
+        for (Link link : linkService.getActiveLinks()) {
+            if (link.type() != Link.Type.DIRECT) {
+                continue;
+            }
+            PortStatistics tx = portStatistics(statistics, read, link.src());
+            PortStatistics rx = portStatistics(statistics, read, link.dst());
+
+            double utilization = 0;
+            double dropRate = 0;
+            if (tx != null) {
+                double seconds = tx.durationSec() + tx.durationNano() / 1e9;
+                Port port = deviceService.getPort(link.src());
+                if (seconds > 0) {
+                    if (port != null && port.portSpeed() > 0) {
+                        // port speed is in Mbps
+                        utilization = tx.bytesSent() * 8 / seconds / (port.portSpeed() * 1e6);
+                    }
+                    dropRate = (tx.packetsTxDropped() + (rx != null ? rx.packetsRxDropped() : 0)) / seconds;
+                }
+            }
+            loads.put(link, new LinkLoadDto(new ConnectPointDto(link.src()), new ConnectPointDto(link.dst()),
+                    utilization, dropRate));
+        }
+        return loads;
+    }
+
+    private PortStatistics portStatistics(Map<ConnectPoint, PortStatistics> statistics, Set<DeviceId> read,
+            ConnectPoint point) {
+        DeviceId deviceId = point.deviceId();
+        if (read.add(deviceId)) {
+            for (PortStatistics port : deviceService.getPortDeltaStatistics(deviceId)) {
+                statistics.put(new ConnectPoint(deviceId, port.portNumber()), port);
+            }
+        }
+        return statistics.get(point);
+    }
+
+    /**
+     * Moves the biggest route of each link above the threshold to the best path avoiding that link.
+     * One route per hot link and round lets the statistics catch up before moving more traffic.
+     */
+    private void rebalance() {
+        try {
+            double threshold = rebalanceThreshold / 100.0;
+            List<Map.Entry<Link, LinkLoadDto>> hot = new ArrayList<>();
+            Map<Link, LinkLoadDto> loads = loads();
+            for (Map.Entry<Link, LinkLoadDto> entry : loads.entrySet()) {
+                if (entry.getValue().utilization >= threshold) {
+                    hot.add(entry);
+                }
+            }
+            if (hot.isEmpty()) {
+                return;
+            }
+            hot.sort(Comparator.comparingDouble(
+                    (Map.Entry<Link, LinkLoadDto> entry) -> entry.getValue().utilization).reversed());
+
+            Map<Long, Double> rates = new HashMap<>();
+            for (RouteStatsDto stats : routeStatsService.getStatistics()) {
+                rates.put(stats.id, stats.byteRate);
+            }
+            // multipath routes are already spread by their select groups
+            List<RouteDto> routes = new ArrayList<>();
+            for (RouteDto route : routingService.getRoutes()) {
+                if (!route.isMultipath() && rates.getOrDefault(route.id, 0.0) > 0) {
+                    routes.add(route);
+                }
+            }
+            routes.sort(Comparator.comparingDouble((RouteDto route) -> rates.get(route.id)).reversed());
+
+            Set<Long> moved = new HashSet<>();
+            for (Map.Entry<Link, LinkLoadDto> entry : hot) {
+                LinkLoadDto load = entry.getValue();
+                for (RouteDto route : routes) {
+                    if (moved.contains(route.id) || !traverses(route.path, load)) {
+                        continue;
+                    }
+                    if (move(route, new LinkLoadWeigher(loads, Collections.singleton(entry.getKey())))) {
+                        moved.add(route.id);
+                        break;
+                    }
+                }
+            }
+            if (!moved.isEmpty()) {
+                log.info("Moved routes {} off links above {}% utilization", moved, rebalanceThreshold);
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule, the next round reads fresh loads
+            log.warn("Failed to rebalance routes", e);
+        }
+    }
+
+    private boolean move(RouteDto route, LinkLoadWeigher weigher) {
+        try {
+            PathDto path = computePath(route.path.src().hostId(), route.path.dst().hostId(), weigher);
+            if (path.equals(route.path)) {
+                return false;
+            }
+            // the route was read before the loads were ranked, a client may have updated it since
+            if (!routingService.updateRoute(new RouteDto(route.id, path), route)) {
+                log.debug("Route {} is not moved: it was updated meanwhile", route.id);
+                return false;
+            }
+            return true;
+        } catch (NotFoundException | InvalidRouteException e) {
+            // no other path, or the route was removed meanwhile
+            log.debug("Route {} is not moved: {}", route.id, e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean traverses(PathDto path, LinkLoadDto link) {
+        List<ConnectPointDto> points = path.points;
+        // a link connects the egress of a device, at an even index, to the ingress of the next one
+        for (int i = 2; i < points.size() - 2; i += 2) {
+            if (points.get(i).equals(link.src) && points.get(i + 1).equals(link.dst)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,98 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.Host;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.neighbour.DefaultNeighbourMessageHandler;
+import org.onosproject.net.neighbour.NeighbourMessageContext;
+import org.onosproject.net.neighbour.NeighbourMessageHandler;
+
+/**
+ * Answers ARP and NDP requests for known hosts from the controller, and floods only the
+ * requests for unknown addresses. Replies are forwarded by the default handler.
+ * The bindings are indexed by IP and VLAN and must be kept current with {@link #addHost} and
+ * {@link #removeHost} from the host events, and {@link #seed} once for the hosts known before.
+ */
+class ProxyNeighbourMessageHandler implements NeighbourMessageHandler {
+
+    private final NeighbourMessageHandler defaultHandler = new DefaultNeighbourMessageHandler();
+
+    private final ConcurrentMap<Binding, MacAddress> bindings = new ConcurrentHashMap<>();
+
+    private static final class Binding {
+        final IpAddress ip;
+        final VlanId vlan;
+
+        Binding(IpAddress ip, VlanId vlan) {
+            this.ip = ip;
+            this.vlan = vlan;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Binding)) {
+                return false;
+            }
+            Binding that = (Binding) obj;
+            return ip.equals(that.ip) && vlan.equals(that.vlan);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ip, vlan);
+        }
+    }
+
+    @Override
+    public void handleMessage(NeighbourMessageContext context, HostService hostService) {
+        switch (context.type()) {
+            case REQUEST:
+                MacAddress mac = bindings.get(new Binding(context.target(), context.vlan()));
+                if (mac != null && !mac.equals(context.srcMac())) {
+                    context.reply(mac);
+                } else {
+                    context.flood();
+                }
+                break;
+            default:
+                defaultHandler.handleMessage(context, hostService);
+                break;
+        }
+    }
+
+    /**
+     * Binds the hosts known to the host service, with the host listener already registered.
+     * The host events wait on the monitor while the hosts are read and bound, so an event is
+     * applied either before the read, which already reflects it, or after the bindings are
+     * seeded, and a binding cannot be overwritten by an older snapshot.
+     */
+    synchronized void seed(HostService hostService) {
+        hostService.getHosts().forEach(this::addHost);
+    }
+
+    synchronized void addHost(Host host) {
+        for (IpAddress ip : host.ipAddresses()) {
+            bindings.put(new Binding(ip, host.vlan()), host.mac());
+        }
+    }
+
+    synchronized void removeHost(Host host) {
+        for (IpAddress ip : host.ipAddresses()) {
+            // the address may already be bound to another host
+            bindings.remove(new Binding(ip, host.vlan()), host.mac());
+        }
+    }
+
+    void clear() {
+        bindings.clear();
+    }
+}
@@ -0,0 +1,257 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.Dictionary;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.packet.DefaultOutboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.sdnlab.routingrest.PathService;
+import org.sdnlab.routingrest.RoutingService;
+import org.sdnlab.routingrest.data.PathDto;
+import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.exception.InvalidRouteException;
+import org.sdnlab.routingrest.exception.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.REACTIVE_ROUTING;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.REACTIVE_ROUTING_DEFAULT;
+
+/**
+ * Adds a route for a pair of hosts on the first IPv4 packet sent between them without a route.
+ * The IPv4 packets are sent to the controller by a rule below every route rule, so only those
+ * no route matches arrive here. They are delivered straight to the destination host, so nothing
+ * is lost while the route is computed and installed.
+ */
+@Component(immediate = true, property = {
+        REACTIVE_ROUTING + ":Boolean=" + REACTIVE_ROUTING_DEFAULT,
+})
+public class ReactiveRouting {
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService configService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected PacketService packetService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected HostService hostService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected PathService pathService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected RoutingService routingService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected CoreService coreService;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final int ROUTER_THREADS = 2;
+
+    // below the per-destination rules, themselves below the per-route ones
+    private static final int PUNT_PRIORITY = RoutingManager.DESTINATION_PRIORITY - 1;
+
+    private static final TrafficSelector IPV4 = DefaultTrafficSelector.builder()
+            .matchEthType(Ethernet.TYPE_IPV4)
+            .build();
+
+    /** Add routes on demand for the IPv4 traffic of host pairs without a route. */
+    private boolean reactiveRouting = REACTIVE_ROUTING_DEFAULT;
+
+    // an app of its own, clearing the routes removes every rule of the routing app
+    private ApplicationId appId;
+
+    private ExecutorService router;
+
+    private final PacketProcessor processor = new ReactivePacketProcessor();
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+    private boolean processing;
+
+    // pairs being routed, the other packets of a burst do not start another computation
+    private final Set<Pair> inFlight = ConcurrentHashMap.newKeySet();
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        appId = coreService.registerApplication("org.sdnlab.routingrest.reactive");
+        router = Executors.newFixedThreadPool(ROUTER_THREADS,
+                groupedThreads("sdnlab/routing-rest", "reactive-router-%d", log));
+        configService.registerProperties(getClass());
+        modified(context);
+        log.info("ReactiveRouting Started");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        Boolean reactive = Tools.isPropertyEnabled(properties, REACTIVE_ROUTING);
+        reactiveRouting = reactive != null ? reactive : REACTIVE_ROUTING_DEFAULT;
+
+        if (reactiveRouting && !processing) {
+            packetService.addProcessor(processor, PacketProcessor.director(2));
+            deviceService.addListener(deviceListener);
+            for (Device device : deviceService.getDevices()) {
+                punt(device.id());
+            }
+            processing = true;
+        } else if (!reactiveRouting && processing) {
+            stopProcessing();
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        configService.unregisterProperties(getClass(), false);
+        if (processing) {
+            stopProcessing();
+        }
+        router.shutdownNow();
+        log.info("ReactiveRouting Stopped");
+    }
+
+    private void stopProcessing() {
+        deviceService.removeListener(deviceListener);
+        flowRuleService.removeFlowRulesById(appId);
+        packetService.removeProcessor(processor);
+        processing = false;
+    }
+
+    // packet requests only come at the fixed packet priorities, the lowest of which equals the route rules'
+    private void punt(DeviceId deviceId) {
+        flowRuleService.applyFlowRules(DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .withSelector(IPV4)
+                .withTreatment(DefaultTrafficTreatment.builder().punt().build())
+                .withPriority(PUNT_PRIORITY)
+                .fromApp(appId)
+                .makePermanent()
+                .build());
+    }
+
+    private void route(Pair pair) {
+        // the pair may have been routed by a client or an earlier burst meanwhile
+        if (routingService.hasRoute(pair.src.toString(), pair.dst.toString())) {
+            return;
+        }
+        try {
+            PathDto path = pathService.getPath(pair.src, pair.dst);
+            RouteDto route = routingService.addRoute(new RouteDto(null, path));
+            log.debug("Added route {} from {} to {}", route.id, pair.src, pair.dst);
+        } catch (NotFoundException | InvalidRouteException e) {
+            log.debug("No route from {} to {}: {}", pair.src, pair.dst, e.getMessage());
+        }
+    }
+
+    private class ReactivePacketProcessor implements PacketProcessor {
+        @Override
+        public void process(PacketContext context) {
+            if (context.isHandled()) {
+                return;
+            }
+            Ethernet ethernet = context.inPacket().parsed();
+            if (ethernet == null || ethernet.getEtherType() != Ethernet.TYPE_IPV4) {
+                return;
+            }
+            HostId src = HostId.hostId(ethernet.getSourceMAC(), ethernet.getVlanIDAsVlanId());
+            HostId dst = HostId.hostId(ethernet.getDestinationMAC(), ethernet.getVlanIDAsVlanId());
+            Host dstHost = hostService.getHost(dst);
+            if (dstHost == null || hostService.getHost(src) == null) {
+                return;
+            }
+
+            // a packet sent before the rules of a new route reached the devices needs no more work
+            Pair pair = new Pair(src, dst);
+            if (!routingService.hasRoute(src.toString(), dst.toString()) && inFlight.add(pair)) {
+                router.execute(() -> {
+                    try {
+                        route(pair);
+                    } catch (RuntimeException e) {
+                        log.warn("Failed to add a route from {} to {}", src, dst, e);
+                    } finally {
+                        inFlight.remove(pair);
+                    }
+                });
+            }
+
+            // deliver this packet at the destination, the route only carries the next ones
+            HostLocation location = dstHost.location();
+            packetService.emit(new DefaultOutboundPacket(location.deviceId(),
+                    DefaultTrafficTreatment.builder().setOutput(location.port()).build(),
+                    context.inPacket().unparsed()));
+            context.block();
+        }
+    }
+
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public void event(DeviceEvent event) {
+            if (event.type() == DeviceEvent.Type.DEVICE_ADDED) {
+                punt(event.subject().id());
+            }
+        }
+    }
+
+    private static final class Pair {
+        final HostId src;
+        final HostId dst;
+
+        Pair(HostId src, HostId dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Pair)) {
+                return false;
+            }
+            Pair that = (Pair) obj;
+            return src.equals(that.src) && dst.equals(that.dst);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(src, dst);
+        }
+    }
+}
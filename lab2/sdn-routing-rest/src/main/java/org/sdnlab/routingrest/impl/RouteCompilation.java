@@ -0,0 +1,25 @@
+package org.sdnlab.routingrest.impl;
+
+/**
+ * How the hops of a route are turned into flow rules.
+ */
+enum RouteCompilation {
+    /**
+     * One rule per hop matching source, in port and destination; nothing is shared between routes.
+     */
+    PER_ROUTE,
+
+    /**
+     * One rule per (device, destination) matching the destination only, shared by every route
+     * towards that destination. The routes to a destination must form a tree.
+     */
+    DESTINATION,
+
+    /**
+     * One rule at the ingress matching source, in port and destination of IPv4 traffic, which pushes
+     * the egress port of every following device as an MPLS label. Each transit device pops its label
+     * with one rule per (port, bottom of stack), shared by every route, so a reroute only replaces
+     * the ingress rule.
+     */
+    MPLS
+}
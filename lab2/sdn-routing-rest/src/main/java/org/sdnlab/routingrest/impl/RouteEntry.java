@@ -0,0 +1,19 @@
+package org.sdnlab.routingrest.impl;
+
+import org.sdnlab.routingrest.data.RouteDto;
+
+/**
+ * A route of the route table together with what has been programmed for it.
+ */
+final class RouteEntry {
+
+    final long id;
+    final RouteDto route;
+    final RouteInstallation installation;
+
+    RouteEntry(long id, RouteDto route, RouteInstallation installation) {
+        this.id = id;
+        this.route = route;
+        this.installation = installation;
+    }
+}
@@ -0,0 +1,38 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.Set;
+
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.group.GroupDescription;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Flow rules and groups programmed on the devices for a single route.
+ */
+final class RouteInstallation {
+
+    final RouteCompilation compilation;
+    final Set<FlowRule> flows;
+    final Set<GroupDescription> groups;
+    // rules owned together with other routes, see SharedFlowRules
+    final Set<FlowRule> sharedFlows;
+
+    RouteInstallation(RouteCompilation compilation, Set<FlowRule> flows, Set<GroupDescription> groups,
+            Set<FlowRule> sharedFlows) {
+        this.compilation = compilation;
+        this.flows = ImmutableSet.copyOf(flows);
+        this.groups = ImmutableSet.copyOf(groups);
+        this.sharedFlows = ImmutableSet.copyOf(sharedFlows);
+    }
+
+    /**
+     * Gets every rule the route depends on, its own and the shared ones.
+     *
+     * @return read-only view of the rules
+     */
+    Set<FlowRule> allFlows() {
+        return Sets.union(flows, sharedFlows);
+    }
+}
@@ -0,0 +1,168 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.sdnlab.routingrest.RouteJobService;
+import org.sdnlab.routingrest.RoutingService;
+import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.data.RouteJobDto;
+import org.sdnlab.routingrest.exception.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+@Component(immediate = true)
+public class RouteJobManager implements RouteJobService {
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected RoutingService routingService;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final int JOB_THREADS = 2;
+    // finished jobs kept for status queries, the first to finish are dropped first
+    private static final int MAX_FINISHED_JOBS = 1024;
+
+    private final AtomicLong jobIds = new AtomicLong();
+    private final Map<Long, RouteJob> jobs = new ConcurrentSkipListMap<>();
+    // guarded by itself, ids of the finished jobs in the order they finished
+    private final Queue<Long> finished = new ArrayDeque<>();
+
+    private ExecutorService executor;
+
+    private static final class RouteJob {
+        final long id;
+        final RouteJobDto.Type type;
+        final int total;
+        final AtomicInteger completed = new AtomicInteger();
+        final CompletableFuture<RouteJobDto> completion = new CompletableFuture<>();
+
+        // released once the job is done
+        volatile List<RouteDto> routes;
+        final List<RouteDto> results = new ArrayList<>();
+        volatile RouteJobDto.State state = RouteJobDto.State.PENDING;
+        volatile String error;
+
+        RouteJob(long id, RouteJobDto.Type type, List<RouteDto> routes) {
+            this.id = id;
+            this.type = type;
+            this.total = routes.size();
+            this.routes = routes;
+        }
+
+        RouteJobDto toDto() {
+            List<RouteDto> ids = null;
+            if (type == RouteJobDto.Type.ADD) {
+                synchronized (results) {
+                    ids = new ArrayList<>(results);
+                }
+            }
+            return new RouteJobDto(id, type, state, total, completed.get(), error, ids);
+        }
+    }
+
+    @Activate
+    protected void activate() {
+        executor = Executors.newFixedThreadPool(JOB_THREADS,
+                groupedThreads("sdnlab/routing-rest", "route-job-%d", log));
+        log.info("RouteJobManager Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        executor.shutdownNow();
+        jobs.clear();
+        synchronized (finished) {
+            finished.clear();
+        }
+        log.info("RouteJobManager Stopped");
+    }
+
+    public RouteJobDto submit(RouteJobDto.Type type, List<RouteDto> routes) {
+        RouteJob job = new RouteJob(jobIds.incrementAndGet(), type, routes);
+        jobs.put(job.id, job);
+        executor.execute(() -> run(job));
+        return job.toDto();
+    }
+
+    private void run(RouteJob job) {
+        job.state = RouteJobDto.State.RUNNING;
+        try {
+            for (RouteDto route : job.routes) {
+                switch (job.type) {
+                    case ADD:
+                        RouteDto id = routingService.addRoute(route);
+                        synchronized (job.results) {
+                            job.results.add(id);
+                        }
+                        break;
+                    case UPDATE:
+                        routingService.updateRoute(route);
+                        break;
+                    case DELETE:
+                        routingService.deleteRoute(route);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown job type " + job.type);
+                }
+                job.completed.incrementAndGet();
+            }
+            job.state = RouteJobDto.State.SUCCEEDED;
+        } catch (RuntimeException e) {
+            log.warn("Route job {} failed after {} of {} routes", job.id, job.completed.get(), job.total, e);
+            job.error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            job.state = RouteJobDto.State.FAILED;
+        } finally {
+            job.routes = null;
+            job.completion.complete(job.toDto());
+            expire(job);
+        }
+    }
+
+    private void expire(RouteJob job) {
+        synchronized (finished) {
+            finished.add(job.id);
+            while (finished.size() > MAX_FINISHED_JOBS) {
+                jobs.remove(finished.remove());
+            }
+        }
+    }
+
+    private RouteJob job(long id) throws NotFoundException {
+        RouteJob job = jobs.get(id);
+        if (job == null) {
+            throw new NotFoundException("The job is not found.");
+        }
+        return job;
+    }
+
+    public RouteJobDto getJob(long id) throws NotFoundException {
+        return job(id).toDto();
+    }
+
+    public CompletableFuture<RouteJobDto> getCompletion(long id) throws NotFoundException {
+        return job(id).completion;
+    }
+
+    public Collection<RouteJobDto> getJobs() {
+        return jobs.values().stream().map(RouteJob::toDto).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,258 @@
+package org.sdnlab.routingrest.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.sdnlab.routingrest.data.ConnectPointDto;
+import org.sdnlab.routingrest.data.PathDto;
+import org.sdnlab.routingrest.data.RouteDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Append-only on-disk log of the route table.
+ * Every mutation appends a small binary record; the log is rewritten from the live routes
+ * once it holds too many obsolete records.
+ */
+final class RouteLog {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    // compact once the log holds this many times more records than live routes
+    private static final int COMPACTION_RATIO = 4;
+    private static final int COMPACTION_MIN_RECORDS = 1024;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final File file;
+    private DataOutputStream out;
+    private long records;
+
+    /**
+     * A persisted route and the compilation it was installed with.
+     */
+    static final class Entry {
+        final RouteDto route;
+        final RouteCompilation compilation;
+
+        Entry(RouteDto route, RouteCompilation compilation) {
+            this.route = route;
+            this.compilation = compilation;
+        }
+    }
+
+    /**
+     * A record that cannot be decoded, the log is cut before it like an incomplete tail.
+     */
+    private static final class CorruptRecordException extends IOException {
+        CorruptRecordException(String message) {
+            super(message);
+        }
+    }
+
+    RouteLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Replays the log and opens it for appending.
+     *
+     * @return live routes by route id
+     * @throws IOException the log cannot be read or opened
+     */
+    synchronized Map<Long, Entry> open() throws IOException {
+        Map<Long, Entry> routes = new LinkedHashMap<>();
+        long valid = 0;
+        records = 0;
+        if (file.exists()) {
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try (DataInputStream in = new DataInputStream(counter)) {
+                while (true) {
+                    byte type = in.readByte();
+                    long id = in.readLong();
+                    if (type == PUT) {
+                        RouteCompilation compilation = readCompilation(in);
+                        PathDto path = readPath(in);
+                        List<PathDto> alternatives = new ArrayList<>();
+                        for (int i = in.readInt(); i > 0; i--) {
+                            alternatives.add(readPath(in));
+                        }
+                        routes.put(id, new Entry(new RouteDto(id, path, alternatives), compilation));
+                    } else if (type == DELETE) {
+                        routes.remove(id);
+                    } else {
+                        throw new CorruptRecordException("Unknown record type " + type);
+                    }
+                    records++;
+                    valid = counter.getCount();
+                }
+            } catch (EOFException e) {
+                // the last record may be incomplete if the controller died while writing it
+            } catch (CorruptRecordException | UTFDataFormatException e) {
+                log.warn("Dropping route log {} after byte {}: {}", file, valid, e.getMessage());
+            }
+            // drop the incomplete tail so that new records are appended after the last valid one
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        } else {
+            File parent = file.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+        }
+
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        return routes;
+    }
+
+    synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("Failed to close route log {}", file, e);
+        }
+        out = null;
+    }
+
+    synchronized void put(RouteDto route, RouteCompilation compilation) {
+        if (out == null) {
+            return;
+        }
+        try {
+            writePut(out, route, compilation);
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            log.error("Failed to persist route {}", route.id, e);
+        }
+    }
+
+    synchronized void delete(long id) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeByte(DELETE);
+            out.writeLong(id);
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            log.error("Failed to persist removal of route {}", id, e);
+        }
+    }
+
+    synchronized boolean needsCompaction(int liveRoutes) {
+        return records > COMPACTION_MIN_RECORDS && records > (long) liveRoutes * COMPACTION_RATIO;
+    }
+
+    /**
+     * Rewrites the log so that it only holds the live routes.
+     * The routes are read while holding the log, so a mutation racing with the rewrite
+     * is either part of the snapshot or appended after it.
+     *
+     * @param snapshot supplier of the live routes with their compilation
+     */
+    synchronized void compact(Supplier<Collection<Entry>> snapshot) {
+        if (out == null) {
+            return;
+        }
+        Collection<Entry> routes = snapshot.get();
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(tmp);
+                    DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(stream))) {
+                for (Entry entry : routes) {
+                    writePut(tmpOut, entry.route, entry.compilation);
+                }
+                tmpOut.flush();
+                stream.getFD().sync();
+            }
+            out.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            records = routes.size();
+        } catch (IOException e) {
+            log.error("Failed to compact route log {}", file, e);
+        }
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        } catch (IOException e) {
+            log.error("Failed to reopen route log {}, routes are no longer persisted", file, e);
+            out = null;
+        }
+    }
+
+    synchronized void clear() {
+        compact(ArrayList::new);
+    }
+
+    private static void writePut(DataOutputStream out, RouteDto route, RouteCompilation compilation)
+            throws IOException {
+        out.writeByte(PUT);
+        out.writeLong(route.id);
+        out.writeByte(compilation.ordinal());
+        writePath(out, route.path);
+        if (route.isMultipath()) {
+            out.writeInt(route.alternatives.size());
+            for (PathDto alternative : route.alternatives) {
+                writePath(out, alternative);
+            }
+        } else {
+            out.writeInt(0);
+        }
+    }
+
+    private static void writePath(DataOutputStream out, PathDto path) throws IOException {
+        out.writeShort(path.points.size());
+        for (ConnectPointDto point : path.points) {
+            out.writeUTF(point.id);
+            // -1 marks a point without port (e.g. a host)
+            out.writeLong(point.port != null ? point.port : -1);
+        }
+    }
+
+    private static RouteCompilation readCompilation(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        RouteCompilation[] compilations = RouteCompilation.values();
+        if (ordinal >= compilations.length) {
+            throw new CorruptRecordException("Unknown route compilation " + ordinal);
+        }
+        return compilations[ordinal];
+    }
+
+    private static PathDto readPath(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        List<ConnectPointDto> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String id = in.readUTF();
+            long port = in.readLong();
+            points.add(new ConnectPointDto(id, port >= 0 ? port : null));
+        }
+        return new PathDto(points);
+    }
+}
@@ -0,0 +1,206 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.sdnlab.routingrest.RouteEvent;
+import org.sdnlab.routingrest.data.RouteDto;
+
+/**
+ * Follows the rules of every route to the devices, from the flow rule events of the app.
+ * A route is PENDING until each of its rules is reported on its device with the expected treatment,
+ * then INSTALLED. It is FAILED when one of its rules is rejected or removed, until the rule comes back.
+ */
+final class RouteStateTracker implements FlowRuleListener {
+
+    private final ApplicationId appId;
+    private final Consumer<RouteEvent> events;
+
+    // guarded by this, treatment of the rules of the app confirmed on the devices
+    private final Map<FlowRule, TrafficTreatment> confirmed = new HashMap<>();
+    // guarded by this, routes using each tracked rule
+    private final Map<FlowRule, Set<Long>> users = new HashMap<>();
+    // modified under the lock, the states are read without it
+    private final Map<Long, Tracked> routes = new ConcurrentHashMap<>();
+
+    // bumped on every state change
+    private volatile long version;
+
+    private static final class Tracked {
+        final RouteDto route;
+        final Set<FlowRule> flows;
+        // rules not confirmed yet, mapped to themselves to get the expected treatment back
+        final Map<FlowRule, FlowRule> pending = new HashMap<>();
+        final CompletableFuture<RouteDto.State> installation = new CompletableFuture<>();
+        volatile RouteDto.State state;
+
+        Tracked(RouteDto route, Set<FlowRule> flows) {
+            this.route = route;
+            this.flows = flows;
+        }
+    }
+
+    RouteStateTracker(ApplicationId appId, Consumer<RouteEvent> events) {
+        this.appId = appId;
+        this.events = events;
+    }
+
+    /**
+     * Records the rules of the app already on the devices.
+     *
+     * @param entries flow entries of the app
+     */
+    synchronized void seed(Iterable<FlowEntry> entries) {
+        for (FlowEntry entry : entries) {
+            if (entry.state() == FlowEntry.FlowEntryState.ADDED) {
+                confirmed.put(entry, entry.treatment());
+            }
+        }
+    }
+
+    /**
+     * Starts following the rules of a new or updated route.
+     * Waiters on the previous installation of an updated route are completed with the new one.
+     *
+     * @param id    route id
+     * @param route route as stored in the route table
+     * @param flows every rule the route depends on
+     */
+    synchronized void track(long id, RouteDto route, Set<FlowRule> flows) {
+        Tracked old = unlink(id);
+        Tracked tracked = new Tracked(route, flows);
+        for (FlowRule flow : flows) {
+            users.computeIfAbsent(flow, k -> new HashSet<>()).add(id);
+            if (!flow.treatment().equals(confirmed.get(flow))) {
+                tracked.pending.put(flow, flow);
+            }
+        }
+        routes.put(id, tracked);
+        if (old != null && !old.installation.isDone()) {
+            tracked.installation.thenAccept(old.installation::complete);
+        }
+        update(id, tracked, tracked.pending.isEmpty() ? RouteDto.State.INSTALLED : RouteDto.State.PENDING);
+    }
+
+    /**
+     * Stops following a removed route.
+     *
+     * @param id route id
+     */
+    synchronized void untrack(long id) {
+        unlink(id);
+    }
+
+    /**
+     * Marks the routes waiting for rules rejected by the devices as failed.
+     *
+     * @param rules rejected rules
+     */
+    synchronized void fail(Collection<FlowRule> rules) {
+        for (FlowRule rule : rules) {
+            for (long id : users.getOrDefault(rule, Collections.emptySet())) {
+                Tracked tracked = routes.get(id);
+                if (tracked.pending.containsKey(rule)) {
+                    update(id, tracked, RouteDto.State.FAILED);
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        routes.clear();
+        users.clear();
+    }
+
+    RouteDto.State state(long id) {
+        Tracked tracked = routes.get(id);
+        return tracked != null ? tracked.state : null;
+    }
+
+    CompletableFuture<RouteDto.State> installation(long id) {
+        Tracked tracked = routes.get(id);
+        return tracked != null ? tracked.installation : null;
+    }
+
+    long version() {
+        return version;
+    }
+
+    @Override
+    public boolean isRelevant(FlowRuleEvent event) {
+        return event.subject().appId() == appId.id();
+    }
+
+    @Override
+    public synchronized void event(FlowRuleEvent event) {
+        FlowRule rule = event.subject();
+        switch (event.type()) {
+            case RULE_ADDED:
+            case RULE_UPDATED:
+                confirmed.put(rule, rule.treatment());
+                for (long id : users.getOrDefault(rule, Collections.emptySet())) {
+                    Tracked tracked = routes.get(id);
+                    FlowRule expected = tracked.pending.get(rule);
+                    if (expected != null && expected.treatment().equals(rule.treatment())) {
+                        tracked.pending.remove(rule);
+                        if (tracked.pending.isEmpty()) {
+                            update(id, tracked, RouteDto.State.INSTALLED);
+                        }
+                    }
+                }
+                break;
+            case RULE_REMOVED:
+                confirmed.remove(rule);
+                for (long id : users.getOrDefault(rule, Collections.emptySet())) {
+                    Tracked tracked = routes.get(id);
+                    for (FlowRule flow : tracked.flows) {
+                        if (flow.equals(rule)) {
+                            tracked.pending.put(flow, flow);
+                        }
+                    }
+                    update(id, tracked, RouteDto.State.FAILED);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private Tracked unlink(long id) {
+        Tracked tracked = routes.remove(id);
+        if (tracked != null) {
+            for (FlowRule flow : tracked.flows) {
+                Set<Long> ids = users.get(flow);
+                if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                    users.remove(flow);
+                }
+            }
+        }
+        return tracked;
+    }
+
+    private void update(long id, Tracked tracked, RouteDto.State state) {
+        if (tracked.state == state) {
+            return;
+        }
+        tracked.state = state;
+        version++;
+        if (state != RouteDto.State.PENDING) {
+            tracked.installation.complete(state);
+        }
+        events.accept(new RouteEvent(RouteEvent.of(state), tracked.route.withState(state)));
+    }
+}
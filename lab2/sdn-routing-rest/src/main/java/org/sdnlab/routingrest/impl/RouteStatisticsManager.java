@@ -0,0 +1,299 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.HostId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+import org.onosproject.net.flow.criteria.PortCriterion;
+import org.onosproject.net.flow.criteria.VlanIdCriterion;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.sdnlab.routingrest.RouteStatisticsService;
+import org.sdnlab.routingrest.RoutingService;
+import org.sdnlab.routingrest.data.ConnectPointDto;
+import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.data.RouteStatsDto;
+import org.sdnlab.routingrest.exception.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.STATS_POLL_INTERVAL;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.STATS_POLL_INTERVAL_DEFAULT;
+
+/**
+ * Collects the traffic of every route from the counters of its ingress rule.
+ * All the rules of the app are read in one call per poll and matched to the routes by their
+ * ingress (device, in port, source and destination MAC), no route is polled on its own.
+ * Routes of the same host pair entering at the same port program one and the same ingress rule,
+ * whose counters cannot be split between them; they are attributed to the route with the lowest id.
+ */
+@Component(immediate = true, property = {
+        STATS_POLL_INTERVAL + ":Integer=" + STATS_POLL_INTERVAL_DEFAULT,
+})
+public class RouteStatisticsManager implements RouteStatisticsService {
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService configService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected RoutingService routingService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected CoreService coreService;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    // rate samples kept per route
+    private static final int HISTORY = 60;
+
+    /** Seconds between two collections of the route counters. */
+    private int statsPollInterval = STATS_POLL_INTERVAL_DEFAULT;
+
+    private ApplicationId appId;
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> poller;
+
+    // replaced by every poll, the counters of the routes still measured are carried over
+    private volatile Map<Long, RouteCounters> counters = Collections.emptyMap();
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        appId = coreService.registerApplication("org.sdnlab.routingrest");
+        executor = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("sdnlab/routing-rest", "route-stats", log));
+        configService.registerProperties(getClass());
+        modified(context);
+        log.info("RouteStatisticsManager Started");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        int interval = Tools.getIntegerProperty(properties, STATS_POLL_INTERVAL, STATS_POLL_INTERVAL_DEFAULT);
+        if (interval <= 0) {
+            log.warn("Invalid {} {}, keeping {}", STATS_POLL_INTERVAL, interval, statsPollInterval);
+            interval = statsPollInterval;
+        }
+        statsPollInterval = interval;
+
+        if (poller != null) {
+            poller.cancel(false);
+        }
+        poller = executor.scheduleWithFixedDelay(this::poll, statsPollInterval, statsPollInterval,
+                TimeUnit.SECONDS);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        configService.unregisterProperties(getClass(), false);
+        executor.shutdownNow();
+        counters = Collections.emptyMap();
+        log.info("RouteStatisticsManager Stopped");
+    }
+
+    @Override
+    public List<RouteStatsDto> getStatistics() {
+        List<RouteStatsDto> statistics = new ArrayList<>();
+        counters.forEach((id, route) -> statistics.add(route.toDto(id, false)));
+        statistics.sort(Comparator.comparingLong(stats -> stats.id));
+        return statistics;
+    }
+
+    @Override
+    public RouteStatsDto getStatistics(long id) throws NotFoundException {
+        RouteCounters route = counters.get(id);
+        if (route == null) {
+            throw new NotFoundException("The route is not measured.");
+        }
+        return route.toDto(id, true);
+    }
+
+    private void poll() {
+        try {
+            Map<Ingress, Long> routes = new HashMap<>();
+            for (RouteDto route : routingService.getRoutes()) {
+                // duplicates share the ingress rule, its counters go to the lowest route id
+                routes.merge(Ingress.of(route), route.id, Math::min);
+            }
+
+            Map<Long, RouteCounters> previous = counters;
+            Map<Long, RouteCounters> updated = new HashMap<>();
+            for (FlowEntry entry : flowRuleService.getFlowEntriesById(appId)) {
+                Ingress ingress = Ingress.of(entry);
+                Long id = ingress != null ? routes.get(ingress) : null;
+                if (id == null) {
+                    continue;
+                }
+                RouteCounters route = previous.get(id);
+                if (route == null) {
+                    route = new RouteCounters();
+                }
+                route.add(entry.lastSeen(), entry.life(), entry.packets(), entry.bytes());
+                updated.put(id, route);
+            }
+            counters = updated;
+        } catch (RuntimeException e) {
+            // keep polling, a failure must not cancel the schedule
+            log.warn("Failed to collect route statistics", e);
+        }
+    }
+
+    /**
+     * Match of the first rule of a route, the only one its traffic crosses exactly once.
+     */
+    private static final class Ingress {
+        final DeviceId deviceId;
+        final PortNumber inPort;
+        final MacAddress src;
+        final VlanId vlan;
+        final MacAddress dst;
+
+        private Ingress(DeviceId deviceId, PortNumber inPort, MacAddress src, VlanId vlan, MacAddress dst) {
+            this.deviceId = deviceId;
+            this.inPort = inPort;
+            this.src = src;
+            this.vlan = vlan;
+            this.dst = dst;
+        }
+
+        static Ingress of(RouteDto route) {
+            ConnectPointDto first = route.path.points.get(1);
+            HostId src = route.path.src().hostId();
+            HostId dst = route.path.dst().hostId();
+            return new Ingress(first.deviceId(), first.portNumber(), src.mac(), src.vlanId(), dst.mac());
+        }
+
+        // null for the rules without a per-route match, e.g. per-destination rules
+        static Ingress of(FlowEntry entry) {
+            TrafficSelector selector = entry.selector();
+            PortCriterion inPort = (PortCriterion) selector.getCriterion(Criterion.Type.IN_PORT);
+            EthCriterion src = (EthCriterion) selector.getCriterion(Criterion.Type.ETH_SRC);
+            EthCriterion dst = (EthCriterion) selector.getCriterion(Criterion.Type.ETH_DST);
+            if (inPort == null || src == null || dst == null) {
+                return null;
+            }
+            VlanIdCriterion vlan = (VlanIdCriterion) selector.getCriterion(Criterion.Type.VLAN_VID);
+            return new Ingress(entry.deviceId(), inPort.port(), src.mac(),
+                    vlan != null ? vlan.vlanId() : VlanId.NONE, dst.mac());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Ingress)) {
+                return false;
+            }
+            Ingress that = (Ingress) obj;
+            return deviceId.equals(that.deviceId) && inPort.equals(that.inPort) && src.equals(that.src)
+                    && vlan.equals(that.vlan) && dst.equals(that.dst);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, inPort, src, vlan, dst);
+        }
+    }
+
+    /**
+     * Latest counters of a route and a ring of its recent rates.
+     * The counters are only refreshed when the flow statistics of the device are collected,
+     * so the rates are measured between the times the entry was seen, not between two polls.
+     */
+    private static final class RouteCounters {
+        private long time;
+        private long life;
+        private long packets;
+        private long bytes;
+        private boolean sampled;
+
+        private final long[] times = new long[HISTORY];
+        private final double[] packetRates = new double[HISTORY];
+        private final double[] byteRates = new double[HISTORY];
+        // number of rates in the ring and index of the next one
+        private int count;
+        private int next;
+
+        /**
+         * Records the counters of the ingress rule.
+         *
+         * @param seen    time the counters were read from the device, in milliseconds
+         * @param life    seconds the rule has been on the device
+         * @param packets packet counter
+         * @param bytes   byte counter
+         */
+        synchronized void add(long seen, long life, long packets, long bytes) {
+            if (sampled && seen <= time) {
+                // not refreshed since the previous poll, there is no new sample
+                return;
+            }
+            if (sampled) {
+                double seconds = (seen - time) / 1000.0;
+                // the counters restart from zero when the rule is replaced
+                boolean restarted = life < this.life || packets < this.packets || bytes < this.bytes;
+                long packetDelta = restarted ? packets : packets - this.packets;
+                long byteDelta = restarted ? bytes : bytes - this.bytes;
+                times[next] = seen;
+                packetRates[next] = packetDelta / seconds;
+                byteRates[next] = byteDelta / seconds;
+                next = (next + 1) % HISTORY;
+                count = Math.min(count + 1, HISTORY);
+            }
+            this.time = seen;
+            this.life = life;
+            this.packets = packets;
+            this.bytes = bytes;
+            this.sampled = true;
+        }
+
+        synchronized RouteStatsDto toDto(long id, boolean withSamples) {
+            int last = (next + HISTORY - 1) % HISTORY;
+            double packetRate = count > 0 ? packetRates[last] : 0;
+            double byteRate = count > 0 ? byteRates[last] : 0;
+
+            List<RouteStatsDto.Sample> samples = null;
+            if (withSamples) {
+                samples = new ArrayList<>(count);
+                for (int i = count; i > 0; i--) {
+                    int index = (next + HISTORY - i) % HISTORY;
+                    samples.add(new RouteStatsDto.Sample(times[index], packetRates[index], byteRates[index]));
+                }
+            }
+            return new RouteStatsDto(id, packets, bytes, packetRate, byteRate, samples);
+        }
+    }
+}
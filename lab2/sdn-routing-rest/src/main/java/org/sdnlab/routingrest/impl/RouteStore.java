@@ -0,0 +1,244 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Route table keyed by primitive route ids.
+ * <p>
+ * Routes are spread over fixed segments, each an open-addressing table of entries.
+ * Mutations copy the touched segment and publish a new immutable {@link Snapshot},
+ * so a write costs O(routes / segments) and reads never lock nor copy the table.
+ */
+final class RouteStore {
+
+    private static final int SEGMENT_BITS = 8;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_CAPACITY = 4;
+
+    private static final RouteEntry[] EMPTY_SEGMENT = new RouteEntry[0];
+
+    // versions start from the wall clock so that they are not reused after a restart
+    private volatile Snapshot current = new Snapshot(System.currentTimeMillis() << 10, 0, emptySegments());
+
+    /**
+     * Immutable view of the route table at a given version.
+     */
+    static final class Snapshot extends AbstractCollection<RouteEntry> {
+        final long version;
+        private final int size;
+        private final RouteEntry[][] segments;
+
+        private Snapshot(long version, int size, RouteEntry[][] segments) {
+            this.version = version;
+            this.size = size;
+            this.segments = segments;
+        }
+
+        RouteEntry get(long id) {
+            long hash = mix(id);
+            RouteEntry[] table = segments[segment(hash)];
+            if (table.length == 0) {
+                return null;
+            }
+            int mask = table.length - 1;
+            for (int i = slot(hash, mask); table[i] != null; i = (i + 1) & mask) {
+                if (table[i].id == id) {
+                    return table[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<RouteEntry> iterator() {
+            return new Iterator<RouteEntry>() {
+                private int segment;
+                private int index = -1;
+
+                private boolean advance() {
+                    while (segment < SEGMENTS) {
+                        RouteEntry[] table = segments[segment];
+                        while (++index < table.length) {
+                            if (table[index] != null) {
+                                return true;
+                            }
+                        }
+                        segment++;
+                        index = -1;
+                    }
+                    return false;
+                }
+
+                private RouteEntry next;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null && advance()) {
+                        next = segments[segment][index];
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public RouteEntry next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    RouteEntry entry = next;
+                    next = null;
+                    return entry;
+                }
+            };
+        }
+    }
+
+    /**
+     * Gets the current snapshot of the table.
+     *
+     * @return immutable snapshot
+     */
+    Snapshot snapshot() {
+        return current;
+    }
+
+    RouteEntry get(long id) {
+        return current.get(id);
+    }
+
+    /**
+     * Adds or replaces a route.
+     *
+     * @param entry route entry
+     * @return previous entry with the same id, or null
+     */
+    synchronized RouteEntry put(RouteEntry entry) {
+        Snapshot snapshot = current;
+        long hash = mix(entry.id);
+        int segment = segment(hash);
+        RouteEntry[] table = snapshot.segments[segment];
+
+        // keep the load factor at most 1/2, the copy is needed anyway
+        int count = count(table);
+        RouteEntry[] copy = count + 1 > table.length / 2
+                ? rehash(table, Math.max(MIN_CAPACITY, table.length * 2))
+                : table.clone();
+
+        int mask = copy.length - 1;
+        int i = slot(hash, mask);
+        while (copy[i] != null && copy[i].id != entry.id) {
+            i = (i + 1) & mask;
+        }
+        RouteEntry previous = copy[i];
+        copy[i] = entry;
+
+        publish(snapshot, segment, copy, previous == null ? 1 : 0);
+        return previous;
+    }
+
+    /**
+     * Removes a route.
+     *
+     * @param id route id
+     * @return removed entry, or null
+     */
+    synchronized RouteEntry remove(long id) {
+        Snapshot snapshot = current;
+        long hash = mix(id);
+        int segment = segment(hash);
+        RouteEntry[] table = snapshot.segments[segment];
+        if (table.length == 0) {
+            return null;
+        }
+
+        int mask = table.length - 1;
+        int i = slot(hash, mask);
+        while (table[i] != null && table[i].id != id) {
+            i = (i + 1) & mask;
+        }
+        if (table[i] == null) {
+            return null;
+        }
+        RouteEntry removed = table[i];
+
+        // backward-shift deletion keeps probe sequences intact without tombstones
+        RouteEntry[] copy = table.clone();
+        copy[i] = null;
+        for (int j = (i + 1) & mask; copy[j] != null; j = (j + 1) & mask) {
+            int home = slot(mix(copy[j].id), mask);
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                copy[i] = copy[j];
+                copy[j] = null;
+                i = j;
+            }
+        }
+
+        publish(snapshot, segment, copy, -1);
+        return removed;
+    }
+
+    synchronized void clear() {
+        current = new Snapshot(current.version + 1, 0, emptySegments());
+    }
+
+    private void publish(Snapshot snapshot, int segment, RouteEntry[] table, int delta) {
+        RouteEntry[][] segments = snapshot.segments.clone();
+        segments[segment] = table;
+        current = new Snapshot(snapshot.version + 1, snapshot.size + delta, segments);
+    }
+
+    private static RouteEntry[][] emptySegments() {
+        RouteEntry[][] segments = new RouteEntry[SEGMENTS][];
+        Arrays.fill(segments, EMPTY_SEGMENT);
+        return segments;
+    }
+
+    private static int count(RouteEntry[] table) {
+        int count = 0;
+        for (RouteEntry entry : table) {
+            if (entry != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static RouteEntry[] rehash(RouteEntry[] table, int capacity) {
+        RouteEntry[] copy = new RouteEntry[capacity];
+        int mask = capacity - 1;
+        for (RouteEntry entry : table) {
+            if (entry == null) {
+                continue;
+            }
+            int i = slot(mix(entry.id), mask);
+            while (copy[i] != null) {
+                i = (i + 1) & mask;
+            }
+            copy[i] = entry;
+        }
+        return copy;
+    }
+
+    // the placement functions are package-private so that tests can build colliding ids
+    static long mix(long id) {
+        // route ids are sequential, spread them over segments and slots
+        long h = id * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    static int segment(long hash) {
+        return (int) (hash >>> (64 - SEGMENT_BITS));
+    }
+
+    static int slot(long hash, int mask) {
+        return (int) hash & mask;
+    }
+}
@@ -1,55 +1,128 @@
 package org.sdnlab.routingrest.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
+import org.onlab.packet.EthType;
+import org.onlab.packet.MplsLabel;
 import org.onlab.packet.VlanId;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
+import org.onosproject.core.GroupId;
 import org.onosproject.core.IdGenerator;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DeviceId;
-import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.flow.DefaultFlowRule;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.group.DefaultGroupBucket;
+import org.onosproject.net.group.DefaultGroupDescription;
+import org.onosproject.net.group.DefaultGroupKey;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupBuckets;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupService;
 import org.onosproject.net.host.HostService;
+import org.onosproject.net.link.LinkService;
 import org.onosproject.net.packet.PacketPriority;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.sdnlab.routingrest.RouteEvent;
+import org.sdnlab.routingrest.RouteListener;
 import org.sdnlab.routingrest.RoutingService;
 import org.sdnlab.routingrest.data.ConnectPointDto;
 import org.sdnlab.routingrest.data.PathDto;
 import org.sdnlab.routingrest.data.RouteDto;
+import org.sdnlab.routingrest.data.RouteSyncDto;
 import org.sdnlab.routingrest.exception.InvalidRouteException;
 import org.sdnlab.routingrest.exception.NotFoundException;
+import org.sdnlab.routingrest.exception.PartialInstallException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Maps;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Collections2;
+import com.google.common.util.concurrent.Striped;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.onlab.util.Tools.groupedThreads;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.PERSIST_ROUTES;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.PERSIST_ROUTES_DEFAULT;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.ROUTE_COMPILATION;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.ROUTE_COMPILATION_DEFAULT;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.ROUTE_LOG_PATH;
+import static org.sdnlab.routingrest.impl.OsgiPropertyConstants.ROUTE_LOG_PATH_DEFAULT;
 
-// TODO: support thread-safe.
-@Component(immediate = true)
+@Component(immediate = true, property = {
+        ROUTE_COMPILATION + "=" + ROUTE_COMPILATION_DEFAULT,
+        PERSIST_ROUTES + ":Boolean=" + PERSIST_ROUTES_DEFAULT,
+        ROUTE_LOG_PATH + "=" + ROUTE_LOG_PATH_DEFAULT,
+})
 public class RoutingManager implements RoutingService {
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService configService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected HostService hostService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected LinkService linkService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected FlowRuleService flowRuleService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected GroupService groupService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected CoreService coreService;
 
@@ -57,102 +130,677 @@ public class RoutingManager implements RoutingService {
 
     private ApplicationId appId;
 
-    private Map<Long, PathDto> routeTable = Maps.newConcurrentMap();
-    private Map<Long, Set<FlowRule>> routeToFlows = Maps.newConcurrentMap();
+    private static final int LOCK_STRIPES = 64;
+
+    // time for the devices to confirm the groups of a route before its rules are pushed
+    private static final long GROUP_TIMEOUT_MS = 5000;
+
+    private static final int INSTALLER_THREADS = 4;
+    // routes of a streamed batch that may be parsed ahead of the installer
+    private static final int PIPELINE_DEPTH = 64;
+
+    private static final Comparator<RouteEntry> ROUTE_ORDER = Comparator.comparingLong(entry -> entry.id);
+
+    private static final Comparator<PortNumber> PORT_ORDER = Comparator.comparingLong(PortNumber::toLong);
+
+    private static final int ROUTE_PRIORITY = PacketPriority.REACTIVE.priorityValue();
+    // aggregated rules stay below the per-route ones so that both modes can coexist on a device
+    static final int DESTINATION_PRIORITY = ROUTE_PRIORITY - 1;
+
+    // labels 0 to 15 are reserved, a label is this base plus the egress port
+    private static final long LABEL_BASE = 16;
+    // deepest stack parsed by Open vSwitch, longer paths are compiled per route
+    private static final int MAX_LABELS = 3;
+
+    /** Compilation mode of new routes; PER_ROUTE, DESTINATION or MPLS. */
+    private RouteCompilation routeCompilation = RouteCompilation.valueOf(ROUTE_COMPILATION_DEFAULT);
+
+    /** Keep routes on disk and their rules on the devices across restarts; applied on activation. */
+    private boolean persistRoutes = PERSIST_ROUTES_DEFAULT;
+
+    /** Path of the route log; defaults to the karaf data directory. */
+    private String routeLogPath = ROUTE_LOG_PATH_DEFAULT;
+
+    private final RouteStore routes = new RouteStore();
+
+    // mutations of the same route are serialized, independent routes proceed in parallel
+    private final Striped<Lock> routeLocks = Striped.lock(LOCK_STRIPES);
 
     private IdGenerator generator;
+    private IdGenerator groupIdGenerator;
+
+    private SharedFlowRules sharedRules;
+
+    private GroupInstaller groupInstaller;
+
+    private RouteLog routeLog;
+
+    private ExecutorService installer;
+
+    private final ListenerRegistry<RouteEvent, RouteListener> listenerRegistry = new ListenerRegistry<>();
+
+    private RouteStateTracker stateTracker;
+
+    private AdjacencyIndex adjacency;
+
+    // number of routes of each host pair, kept with the route table for lookups without a scan
+    private final Map<HostPair, Integer> routedPairs = new ConcurrentHashMap<>();
 
     @Activate
     protected void activate(ComponentContext context) {
         appId = coreService.registerApplication("org.sdnlab.routingrest"); // equal to the name shown in pom.xml file
         generator = coreService.getIdGenerator("routes");
+        groupIdGenerator = coreService.getIdGenerator("route-groups");
+        sharedRules = new SharedFlowRules(flowRuleService);
+        groupInstaller = new GroupInstaller(groupService);
+        groupService.addListener(groupInstaller);
+        installer = Executors.newFixedThreadPool(INSTALLER_THREADS,
+                groupedThreads("sdnlab/routing-rest", "route-installer-%d", log));
+
+        // listen before reading the current rules, so no confirmation is missed
+        stateTracker = new RouteStateTracker(appId, listenerRegistry::process);
+        flowRuleService.addListener(stateTracker);
+        stateTracker.seed(flowRuleService.getFlowEntriesById(appId));
+
+        adjacency = new AdjacencyIndex();
+        linkService.addListener(adjacency.linkListener());
+        hostService.addListener(adjacency.hostListener());
+        adjacency.seed(linkService, hostService);
+
+        configService.registerProperties(getClass());
+        readProperty(context);
+
+        if (persistRoutes) {
+            routeLog = new RouteLog(routeLogFile());
+            try {
+                reconcile(routeLog.open());
+            } catch (IOException e) {
+                log.error("Failed to load route log, starting with an empty route table", e);
+                routeLog.close();
+                routeLog = null;
+            }
+        }
         log.info("RoutingManager Started");
     }
 
+    @Modified
+    protected void modified(ComponentContext context) {
+        readProperty(context);
+    }
+
     @Deactivate
     protected void deactivate() {
-        flowRuleService.removeFlowRulesById(appId);
+        configService.unregisterProperties(getClass(), false);
+        installer.shutdown();
+        flowRuleService.removeListener(stateTracker);
+        groupService.removeListener(groupInstaller);
+        groupInstaller.clear();
+        linkService.removeListener(adjacency.linkListener());
+        hostService.removeListener(adjacency.hostListener());
+        if (routeLog != null) {
+            // the rules stay on the devices and are reconciled with the log on the next activation
+            routeLog.close();
+            routeLog = null;
+        } else {
+            flowRuleService.removeFlowRulesById(appId);
+            routes.snapshot().forEach(entry -> removeGroups(entry.installation.groups));
+        }
         log.info("RoutingManager Stopped");
     }
 
+    private void readProperty(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        String compilation = Tools.get(properties, ROUTE_COMPILATION);
+        try {
+            // installed routes keep their rules until they are updated
+            routeCompilation = RouteCompilation.valueOf(compilation);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            log.warn("Unknown route compilation {}, keeping {}", compilation, routeCompilation);
+        }
+
+        Boolean persist = Tools.isPropertyEnabled(properties, PERSIST_ROUTES);
+        persistRoutes = persist != null ? persist : PERSIST_ROUTES_DEFAULT;
+
+        String path = Tools.get(properties, ROUTE_LOG_PATH);
+        routeLogPath = path != null ? path : ROUTE_LOG_PATH_DEFAULT;
+    }
+
+    private File routeLogFile() {
+        if (!routeLogPath.isEmpty()) {
+            return new File(routeLogPath);
+        }
+        String dataDir = System.getProperty("karaf.data", System.getProperty("java.io.tmpdir"));
+        return new File(new File(dataDir, "sdn-routing-rest"), "routes.log");
+    }
+
+    /**
+     * Rebuilds the route table from the persisted routes and only pushes the difference
+     * between their rules and the rules of this app found on the devices.
+     */
+    private void reconcile(Map<Long, RouteLog.Entry> persisted) {
+        Map<FlowRule, FlowRule> desired = new HashMap<>();
+        Set<GroupDescription> groups = new HashSet<>();
+        for (RouteLog.Entry entry : persisted.values()) {
+            long id = entry.route.id;
+            try {
+                RouteInstallation installation = compile(id, entry.route, entry.compilation);
+                sharedRules.restore(installation.sharedFlows);
+                installation.flows.forEach(flow -> desired.put(flow, flow));
+                groups.addAll(installation.groups);
+                store(new RouteEntry(id, entry.route, installation));
+            } catch (InvalidRouteException e) {
+                log.warn("Dropping persisted route {}: {}", id, e.getMessage());
+                routeLog.delete(id);
+            }
+        }
+        sharedRules.rules().forEach(flow -> desired.put(flow, flow));
+
+        // keep the rules already on the devices if their match and treatment are unchanged
+        List<FlowRule> stale = new ArrayList<>();
+        Set<FlowRule> present = new HashSet<>();
+        for (FlowEntry entry : flowRuleService.getFlowEntriesById(appId)) {
+            FlowRule flow = desired.get(entry);
+            if (flow != null && flow.treatment().equals(entry.treatment())) {
+                present.add(flow);
+            } else if (flow == null) {
+                // rules with a desired match are overwritten by applying the desired one
+                stale.add(entry);
+            }
+        }
+        List<FlowRule> missing = new ArrayList<>();
+        desired.keySet().stream().filter(flow -> !present.contains(flow)).forEach(missing::add);
+
+        // activation does not wait, the rules are pushed once the devices report the groups
+        groupInstaller.add(groups)
+                .orTimeout(GROUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.warn("Groups of the restored routes are not confirmed: {}", error.toString());
+                    }
+                    if (!missing.isEmpty()) {
+                        flowRuleService.applyFlowRules(missing.toArray(new FlowRule[0]));
+                    }
+                });
+        if (!stale.isEmpty()) {
+            flowRuleService.removeFlowRules(stale.toArray(new FlowRule[0]));
+        }
+        routes.snapshot().forEach(entry -> stateTracker.track(entry.id, entry.route, entry.installation.allFlows()));
+        log.info("Restored {} routes: {} rules kept, {} rules pushed, {} stale rules removed",
+                routes.snapshot().size(), present.size(), missing.size(), stale.size());
+    }
+
+    private void persist(long id) {
+        if (routeLog == null) {
+            return;
+        }
+        RouteEntry entry = routes.get(id);
+        if (entry != null) {
+            routeLog.put(entry.route, entry.installation.compilation);
+        } else {
+            routeLog.delete(id);
+        }
+        if (routeLog.needsCompaction(routes.snapshot().size())) {
+            routeLog.compact(this::persistedRoutes);
+        }
+    }
+
+    private List<RouteLog.Entry> persistedRoutes() {
+        RouteStore.Snapshot snapshot = routes.snapshot();
+        List<RouteLog.Entry> persisted = new ArrayList<>(snapshot.size());
+        for (RouteEntry entry : snapshot) {
+            persisted.add(new RouteLog.Entry(entry.route, entry.installation.compilation));
+        }
+        return persisted;
+    }
+
     private void validatePath(PathDto path) throws InvalidRouteException {
-        checkNotNull(path);
+        if (path == null || path.points == null || path.points.size() < 4) {
+            throw new InvalidRouteException("A path should be a host, pairs of device ports and a host.");
+        }
         for (int i = 1; i < path.points.size() - 1; i += 2) {
             if (!path.points.get(i).id.equals(path.points.get(i + 1).id)) {
                 throw new InvalidRouteException("Each pair of adjacent points should be in the same device.");
             }
         }
+        adjacency.validate(path);
+    }
+
+    private void validateRoute(RouteDto route) throws InvalidRouteException {
+        checkNotNull(route);
+        validatePath(route.path);
+        if (!route.isMultipath()) {
+            return;
+        }
+
+        for (PathDto alternative : route.alternatives) {
+            validatePath(alternative);
+            if (!alternative.src().id.equals(route.path.src().id)
+                    || !alternative.dst().id.equals(route.path.dst().id)) {
+                throw new InvalidRouteException("Alternative paths should connect the same hosts.");
+            }
+            if (alternative.points.size() != route.path.points.size()) {
+                throw new InvalidRouteException("Alternative paths should have the same number of hops.");
+            }
+        }
     }
 
-    private FlowRule installFlowRule(Host src, Host dst, DeviceId deviceId, PortNumber srcPort, PortNumber dstPort) {
+    private FlowRule buildDestinationRule(HostId dst, DeviceId deviceId, PortNumber dstPort) {
         TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector
                 .builder()
-                .matchEthSrc(src.mac())
-                .matchInPort(srcPort)
                 .matchEthDst(dst.mac());
 
-        if (src.vlan() != VlanId.NONE) {
-            selectorBuilder.matchVlanId(src.vlan());
+        if (dst.vlanId() != VlanId.NONE) {
+            selectorBuilder.matchVlanId(dst.vlanId());
         }
 
-        TrafficTreatment treatment = DefaultTrafficTreatment
-                .builder()
-                .setOutput(dstPort)
+        return DefaultFlowRule.builder()
+                .withSelector(selectorBuilder.build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(dstPort).build())
+                .withPriority(DESTINATION_PRIORITY)
+                .forDevice(deviceId)
+                .makePermanent()
+                .fromApp(appId)
                 .build();
+    }
 
-        FlowRule flowRule = DefaultFlowRule.builder()
-                .withSelector(selectorBuilder.build())
+    private FlowRule buildFlowRule(HostId src, HostId dst, DeviceId deviceId, PortNumber srcPort,
+            TrafficTreatment treatment) {
+        return buildFlowRule(routeSelector(src, dst, srcPort).build(), deviceId, treatment);
+    }
+
+    private TrafficSelector.Builder routeSelector(HostId src, HostId dst, PortNumber srcPort) {
+        TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector
+                .builder()
+                .matchEthSrc(src.mac())
+                .matchInPort(srcPort)
+                .matchEthDst(dst.mac());
+
+        if (src.vlanId() != VlanId.NONE) {
+            selectorBuilder.matchVlanId(src.vlanId());
+        }
+        return selectorBuilder;
+    }
+
+    private FlowRule buildFlowRule(TrafficSelector selector, DeviceId deviceId, TrafficTreatment treatment) {
+        return DefaultFlowRule.builder()
+                .withSelector(selector)
                 .withTreatment(treatment)
-                .withPriority(PacketPriority.REACTIVE.priorityValue())
+                .withPriority(ROUTE_PRIORITY)
                 .forDevice(deviceId)
                 .makePermanent()
                 .fromApp(appId)
                 .build();
-        flowRuleService.applyFlowRules(flowRule);
-        return flowRule;
     }
 
-    private Set<FlowRule> installFlowRules(PathDto path) throws InvalidRouteException {
-        Host src = hostService.getHost(path.src().hostId());
-        Host dst = hostService.getHost(path.dst().hostId());
+    private GroupDescription buildSelectGroup(long routeId, DeviceId deviceId, Set<PortNumber> ports) {
+        // the key only depends on the route and the chosen ports, so re-installing the same hop reuses the group
+        String cookie = "ecmp:" + routeId + ":" + ports;
+        GroupKey key = new DefaultGroupKey(cookie.getBytes(StandardCharsets.UTF_8));
+
+        Group existing = groupService.getGroup(deviceId, key);
+        int groupId = existing != null ? existing.id().id() : (int) (groupIdGenerator.getNewId() & 0x7fffffff);
 
-        if (src == null || dst == null) {
-            throw new InvalidRouteException("Source/Destination host is not found.");
+        List<GroupBucket> buckets = new ArrayList<>();
+        for (PortNumber port : ports) {
+            TrafficTreatment treatment = DefaultTrafficTreatment.builder().setOutput(port).build();
+            buckets.add(DefaultGroupBucket.createSelectGroupBucket(treatment));
         }
+        return new DefaultGroupDescription(deviceId, GroupDescription.Type.SELECT, new GroupBuckets(buckets),
+                key, groupId, appId);
+    }
 
-        Set<FlowRule> flows = new HashSet<>();
+    private Set<FlowRule> buildDestinationRules(HostId dst, PathDto path) throws InvalidRouteException {
+        Map<FlowRule, FlowRule> flows = new LinkedHashMap<>();
         List<ConnectPointDto> points = path.points;
         for (int i = 1; i < points.size() - 1; i += 2) {
-            DeviceId deviceId = points.get(i).deviceId();
-            PortNumber srcPort = points.get(i).portNumber();
-            PortNumber dstPort = points.get(i + 1).portNumber();
-            FlowRule flowRule = installFlowRule(src, dst, deviceId, srcPort, dstPort);
-            flows.add(flowRule);
+            FlowRule flow = buildDestinationRule(dst, points.get(i).deviceId(), points.get(i + 1).portNumber());
+            FlowRule previous = flows.putIfAbsent(flow, flow);
+            if (previous != null && !previous.treatment().equals(flow.treatment())) {
+                throw new InvalidRouteException("The path leaves a device through different ports.");
+            }
+        }
+        return flows.keySet();
+    }
+
+    /**
+     * Computes the rules and groups of a route without touching the devices.
+     * Matches only depend on the host ids, so persisted routes compile before the hosts are discovered.
+     */
+    private RouteInstallation compile(long routeId, RouteDto route, RouteCompilation compilation)
+            throws InvalidRouteException {
+        HostId src = route.path.src().hostId();
+        HostId dst = route.path.dst().hostId();
+
+        // multipath routes need their own select groups and are never aggregated
+        if (compilation == RouteCompilation.DESTINATION && !route.isMultipath()) {
+            Set<FlowRule> shared = buildDestinationRules(dst, route.path);
+            return new RouteInstallation(compilation, Collections.emptySet(), Collections.emptySet(), shared);
+        }
+        // a path through n devices needs n - 1 labels
+        if (compilation == RouteCompilation.MPLS && !route.isMultipath()
+                && route.path.points.size() <= 2 * MAX_LABELS + 4) {
+            return compileLabels(src, dst, route.path);
+        }
+
+        List<PathDto> paths = new ArrayList<>();
+        paths.add(route.path);
+        if (route.isMultipath()) {
+            paths.addAll(route.alternatives);
+        }
+
+        // merge the paths into the set of next hops per (device, in port)
+        Map<DeviceId, Map<PortNumber, Set<PortNumber>>> hops = new LinkedHashMap<>();
+        for (PathDto path : paths) {
+            List<ConnectPointDto> points = path.points;
+            for (int i = 1; i < points.size() - 1; i += 2) {
+                hops.computeIfAbsent(points.get(i).deviceId(), k -> new LinkedHashMap<>())
+                        .computeIfAbsent(points.get(i).portNumber(), k -> new TreeSet<>(PORT_ORDER))
+                        .add(points.get(i + 1).portNumber());
+            }
+        }
+
+        Set<FlowRule> flows = new HashSet<>();
+        Map<String, GroupDescription> groups = new LinkedHashMap<>();
+        for (Map.Entry<DeviceId, Map<PortNumber, Set<PortNumber>>> device : hops.entrySet()) {
+            DeviceId deviceId = device.getKey();
+            for (Map.Entry<PortNumber, Set<PortNumber>> hop : device.getValue().entrySet()) {
+                Set<PortNumber> outPorts = hop.getValue();
+                TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder();
+                if (outPorts.size() == 1) {
+                    treatment.setOutput(outPorts.iterator().next());
+                } else {
+                    // hash-based selection among the equal-cost next hops is done by the switch
+                    GroupDescription group = groups.computeIfAbsent(deviceId + "/" + outPorts,
+                            k -> buildSelectGroup(routeId, deviceId, outPorts));
+                    treatment.group(new GroupId(group.givenGroupId()));
+                }
+                flows.add(buildFlowRule(src, dst, deviceId, hop.getKey(), treatment.build()));
+            }
+        }
+
+        return new RouteInstallation(RouteCompilation.PER_ROUTE, flows, new HashSet<>(groups.values()),
+                Collections.emptySet());
+    }
+
+    private RouteInstallation compileLabels(HostId src, HostId dst, PathDto path) throws InvalidRouteException {
+        List<ConnectPointDto> points = path.points;
+        Set<FlowRule> shared = new HashSet<>();
+        TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder();
+        // the label of the last device is pushed first and ends at the bottom of the stack
+        for (int i = points.size() - 2; i > 2; i -= 2) {
+            PortNumber port = points.get(i).portNumber();
+            if (port.toLong() > MplsLabel.MAX_MPLS - LABEL_BASE) {
+                throw new InvalidRouteException("The port " + port + " cannot be encoded as a label.");
+            }
+            shared.add(buildLabelRule(points.get(i).deviceId(), port, i == points.size() - 2));
+            treatment.pushMpls().setMpls(label(port));
+        }
+        treatment.setOutput(points.get(2).portNumber());
+
+        TrafficSelector.Builder selector = routeSelector(src, dst, points.get(1).portNumber());
+        if (!shared.isEmpty()) {
+            // the egress pops the last label back to IPv4, other traffic is not label-switched
+            selector.matchEthType(EthType.EtherType.IPV4.ethType().toShort());
+        }
+        FlowRule ingress = buildFlowRule(selector.build(), points.get(1).deviceId(), treatment.build());
+        return new RouteInstallation(RouteCompilation.MPLS, Collections.singleton(ingress), Collections.emptySet(),
+                shared);
+    }
+
+    private static MplsLabel label(PortNumber port) {
+        return MplsLabel.mplsLabel((int) (LABEL_BASE + port.toLong()));
+    }
+
+    private FlowRule buildLabelRule(DeviceId deviceId, PortNumber port, boolean bottom) {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchEthType(EthType.EtherType.MPLS_UNICAST.ethType().toShort())
+                .matchMplsLabel(label(port))
+                .matchMplsBos(bottom)
+                .build();
+        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
+                .popMpls(bottom ? EthType.EtherType.IPV4.ethType() : EthType.EtherType.MPLS_UNICAST.ethType())
+                .setOutput(port)
+                .build();
+        return buildFlowRule(selector, deviceId, treatment);
+    }
+
+    /**
+     * Compiles a route and adds its groups, without the route lock. A switch rejects a rule pointing
+     * at a group it does not have yet, so the future only completes once the devices confirmed the
+     * groups; a slow device then holds neither a route lock nor an installer thread.
+     */
+    private CompletableFuture<RouteInstallation> prepare(long routeId, RouteDto route) {
+        RouteInstallation installation;
+        try {
+            if (hostService.getHost(route.path.src().hostId()) == null
+                    || hostService.getHost(route.path.dst().hostId()) == null) {
+                throw new InvalidRouteException("Source/Destination host is not found.");
+            }
+            installation = compile(routeId, route, routeCompilation);
+        } catch (InvalidRouteException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (installation.groups.isEmpty()) {
+            return CompletableFuture.completedFuture(installation);
+        }
+        return groupInstaller.add(installation.groups)
+                .orTimeout(GROUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .handle((added, error) -> {
+                    if (error == null) {
+                        return installation;
+                    }
+                    log.warn("Groups of route {} are not confirmed: {}", routeId, error.toString());
+                    RouteEntry current = routes.get(routeId);
+                    discardGroups(installation, current != null ? current.installation : null);
+                    throw new InvalidRouteException("The devices did not add the groups of the route.");
+                });
+    }
+
+    /**
+     * Installs the rules of a prepared route, under the route lock. The route, as it is stored in the
+     * table, is tracked right before its own rules are applied, so a rejection always finds it tracked.
+     */
+    private void installFlowRules(long routeId, RouteDto route, RouteInstallation installation,
+            RouteInstallation old) throws InvalidRouteException {
+        Set<FlowRule> oldShared = old != null ? old.sharedFlows : Collections.emptySet();
+
+        // shared rules go first, a conflict must be detected before any rule is pushed
+        if (!installation.sharedFlows.isEmpty()) {
+            try {
+                sharedRules.replace(oldShared, installation.sharedFlows);
+            } catch (InvalidRouteException e) {
+                discardGroups(installation, old);
+                throw e;
+            }
+        }
+        // nothing can fail past this point; tracking first, an early rejection must find the route
+        stateTracker.track(routeId, route, installation.allFlows());
+        if (!installation.flows.isEmpty()) {
+            FlowRuleOperations.Builder operations = FlowRuleOperations.builder();
+            installation.flows.forEach(operations::add);
+            flowRuleService.apply(operations.build(new FlowRuleOperationsContext() {
+                @Override
+                public void onError(FlowRuleOperations failed) {
+                    List<FlowRule> rules = new ArrayList<>();
+                    for (Set<FlowRuleOperation> stage : failed.stages()) {
+                        stage.forEach(operation -> rules.add(operation.rule()));
+                    }
+                    log.warn("Devices rejected {} rules of route {}", rules.size(), routeId);
+                    stateTracker.fail(rules);
+                }
+            }));
         }
-        return flows;
+        if (installation.sharedFlows.isEmpty()) {
+            sharedRules.replace(oldShared, Collections.emptySet());
+        }
+    }
+
+    // removes the groups of an installation that is not used, except those the installed version still uses
+    private void discardGroups(RouteInstallation installation, RouteInstallation installed) {
+        Set<String> kept = installed != null ? groupKeys(installed.groups) : Collections.emptySet();
+        removeGroups(installation.groups.stream()
+                .filter(group -> !kept.contains(group.deviceId() + "/" + group.appCookie()))
+                .collect(Collectors.toSet()));
+    }
+
+    private static Set<String> groupKeys(Set<GroupDescription> groups) {
+        return groups.stream()
+                .map(group -> group.deviceId() + "/" + group.appCookie())
+                .collect(Collectors.toSet());
     }
 
     private void removeFlowRules(Set<FlowRule> flows) {
         flows.forEach(flowRuleService::removeFlowRules);
     }
 
-    public List<RouteDto> getRoutes() {
-        List<RouteDto> routes = new ArrayList<>();
-        for (Map.Entry<Long, PathDto> entry : routeTable.entrySet()) {
-            routes.add(new RouteDto(entry.getKey(), entry.getValue()));
+    private void removeGroups(Set<GroupDescription> groups) {
+        groups.forEach(group -> groupService.removeGroup(group.deviceId(), group.appCookie(), appId));
+    }
+
+    private void removeInstallation(RouteInstallation installation) {
+        removeFlowRules(installation.flows);
+        removeGroups(installation.groups);
+        sharedRules.replace(installation.sharedFlows, Collections.emptySet());
+    }
+
+    private void removeStaleInstallation(RouteInstallation old, RouteInstallation current) {
+        // shared rules were swapped while installing;
+        // rules equal to the new ones have just been re-applied and must stay on the devices
+        old.flows.stream()
+                .filter(flow -> !current.flows.contains(flow))
+                .forEach(flowRuleService::removeFlowRules);
+
+        Set<String> keys = groupKeys(current.groups);
+        removeGroups(old.groups.stream()
+                .filter(group -> !keys.contains(group.deviceId() + "/" + group.appCookie()))
+                .collect(Collectors.toSet()));
+    }
+
+    public Collection<RouteDto> getRoutes() {
+        // a view over an immutable snapshot, nothing proportional to the table is copied
+        return Collections2.transform(routes.snapshot(), this::withState);
+    }
+
+    private RouteDto withState(RouteEntry entry) {
+        return entry.route.withState(stateTracker.state(entry.id));
+    }
+
+    public List<RouteDto> getRoutes(String src, String dst, String device, Long cursor, int limit) {
+        checkArgument(limit >= 0, "limit must not be negative");
+        long after = cursor != null ? cursor : Long.MIN_VALUE;
+        Predicate<RouteEntry> filter = entry -> entry.id > after && matches(entry.route, src, dst, device);
+
+        RouteStore.Snapshot snapshot = routes.snapshot();
+        if (limit == 0) {
+            return snapshot.stream()
+                    .filter(filter)
+                    .sorted(ROUTE_ORDER)
+                    .map(this::withState)
+                    .collect(Collectors.toList());
+        }
+
+        // keep the smallest matching ids in a bounded max-heap, memory is proportional to the page only
+        PriorityQueue<RouteEntry> page = new PriorityQueue<>(limit, ROUTE_ORDER.reversed());
+        for (RouteEntry entry : snapshot) {
+            if (!filter.test(entry)) {
+                continue;
+            }
+            if (page.size() < limit) {
+                page.add(entry);
+            } else if (entry.id < page.peek().id) {
+                page.poll();
+                page.add(entry);
+            }
+        }
+        List<RouteEntry> entries = new ArrayList<>(page);
+        entries.sort(ROUTE_ORDER);
+        return entries.stream().map(this::withState).collect(Collectors.toList());
+    }
+
+    private static boolean matches(RouteDto route, String src, String dst, String device) {
+        if (src != null && !src.equals(route.path.src().id)) {
+            return false;
+        }
+        if (dst != null && !dst.equals(route.path.dst().id)) {
+            return false;
+        }
+        if (device == null) {
+            return true;
+        }
+        if (traverses(route.path, device)) {
+            return true;
+        }
+        return route.isMultipath() && route.alternatives.stream().anyMatch(path -> traverses(path, device));
+    }
+
+    private static boolean traverses(PathDto path, String device) {
+        List<ConnectPointDto> points = path.points;
+        for (int i = 1; i < points.size() - 1; i += 2) {
+            if (device.equals(points.get(i).id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getRoutesVersion() {
+        // both only grow, so does their sum
+        return routes.snapshot().version + stateTracker.version();
+    }
+
+    public CompletableFuture<RouteDto.State> getInstallation(long id) throws NotFoundException {
+        CompletableFuture<RouteDto.State> installation = stateTracker.installation(id);
+        if (installation == null) {
+            throw new NotFoundException("The route is not found.");
         }
-        return routes;
+        return installation;
+    }
+
+    public void addListener(RouteListener listener) {
+        listenerRegistry.addListener(listener);
+    }
+
+    public void removeListener(RouteListener listener) {
+        listenerRegistry.removeListener(listener);
     }
 
     public RouteDto addRoute(RouteDto route) throws InvalidRouteException {
-        validatePath(route.path);
+        validateRoute(route);
+        return await(insertRoute(route));
+    }
+
+    private CompletableFuture<RouteDto> insertRoute(RouteDto route) {
+        long id;
+        do {
+            // the generator may restart below the ids restored from the route log
+            id = generator.getNewId();
+        } while (routes.get(id) != null);
+        RouteDto stored = new RouteDto(id, route.path, route.alternatives);
+        return prepare(id, stored).thenApplyAsync(installation -> {
+            Lock lock = routeLocks.get(stored.id);
+            lock.lock();
+            try {
+                // add flow rules before adding to route table to avoid entering corrupted state
+                installFlowRules(stored.id, stored, installation, null);
+                store(new RouteEntry(stored.id, stored, installation));
+                persist(stored.id);
+            } finally {
+                lock.unlock();
+            }
+            return new RouteDto(stored.id);
+        }, installer);
+    }
 
-        // add flow rules before adding to route table to avoid entering corrupted state
-        Set<FlowRule> flows = installFlowRules(route.path);
-        long id = generator.getNewId();
-        routeTable.put(id, route.path);
-        routeToFlows.put(id, flows);
-        return new RouteDto(id);
+    // waits for an installation on the calling thread, with the failure as it was thrown
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            Throwables.throwIfUnchecked(cause);
+            throw new IllegalStateException(cause);
+        }
     }
 
     public List<RouteDto> addRoutes(List<RouteDto> routes) throws InvalidRouteException {
@@ -163,15 +811,26 @@ public class RoutingManager implements RoutingService {
         return ids;
     }
 
+    public List<RouteDto> addRoutes(Iterator<RouteDto> routes) throws InvalidRouteException {
+        return pipeline(routes, false, this::insertRoute);
+    }
+
     // TODO: return boolean?
     public void deleteRoute(RouteDto route) {
         checkNotNull(route.id);
 
-        // empty-free removal
-        routeTable.remove(route.id);
-        Set<FlowRule> flows = routeToFlows.remove(route.id);
-        if (flows != null) {
-            removeFlowRules(flows);
+        Lock lock = routeLocks.get(route.id);
+        lock.lock();
+        try {
+            // empty-free removal
+            RouteEntry entry = unstore(route.id);
+            if (entry != null) {
+                stateTracker.untrack(route.id);
+                removeInstallation(entry.installation);
+                persist(route.id);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -182,17 +841,53 @@ public class RoutingManager implements RoutingService {
     }
 
     public void updateRoute(RouteDto route) throws InvalidRouteException, NotFoundException {
-        validatePath(route.path);
+        checkNotNull(route.id);
+        validateRoute(route);
+        await(replaceRoute(route, null));
+    }
 
-        if (routeTable.containsKey(route.id)) {
-            throw new NotFoundException("The route is not found.");
+    public boolean updateRoute(RouteDto route, RouteDto expected) throws InvalidRouteException, NotFoundException {
+        checkNotNull(route.id);
+        checkNotNull(expected);
+        validateRoute(route);
+        return await(replaceRoute(route, expected)) != null;
+    }
+
+    private CompletableFuture<RouteDto> replaceRoute(RouteDto route) {
+        return replaceRoute(route, null);
+    }
+
+    // completes with null if the route no longer has the expected paths
+    private CompletableFuture<RouteDto> replaceRoute(RouteDto route, RouteDto expected) {
+        if (routes.get(route.id) == null) {
+            return CompletableFuture.failedFuture(new NotFoundException("The route is not found."));
         }
-        Set<FlowRule> oldFlows = routeToFlows.get(route.id);
+        RouteDto stored = new RouteDto(route.id, route.path, route.alternatives);
+        return prepare(route.id, stored).thenApplyAsync(installation -> {
+            Lock lock = routeLocks.get(route.id);
+            lock.lock();
+            try {
+                // the existence check must happen under the lock, a concurrent delete may win otherwise
+                RouteEntry old = routes.get(route.id);
+                if (old == null) {
+                    discardGroups(installation, null);
+                    throw new NotFoundException("The route is not found.");
+                }
+                if (expected != null && !samePaths(old.route, expected)) {
+                    discardGroups(installation, old.installation);
+                    return null;
+                }
 
-        removeFlowRules(oldFlows);
-        Set<FlowRule> flows = installFlowRules(route.path);
-        routeTable.replace(route.id, route.path);
-        routeToFlows.replace(route.id, flows);
+                // install new flow rules first, the old ones are kept if the new path is rejected
+                installFlowRules(route.id, stored, installation, old.installation);
+                store(new RouteEntry(route.id, stored, installation));
+                removeStaleInstallation(old.installation, installation);
+                persist(route.id);
+            } finally {
+                lock.unlock();
+            }
+            return new RouteDto(route.id);
+        }, installer);
     }
 
     public void updateRoutes(List<RouteDto> routes) throws InvalidRouteException, NotFoundException {
@@ -201,9 +896,278 @@ public class RoutingManager implements RoutingService {
         }
     }
 
+    public void updateRoutes(Iterator<RouteDto> routes) throws InvalidRouteException, NotFoundException {
+        pipeline(routes, false, route -> {
+            checkNotNull(route.id);
+            return replaceRoute(route);
+        });
+    }
+
+    /**
+     * Validates routes on the calling thread while they are pulled from the iterator, unless the
+     * caller already did, and installs them on the installer pool, with a bounded number of routes in flight.
+     * A route waiting for the devices to confirm its groups holds no installer thread.
+     * The first failure stops pulling new routes; routes already in flight are completed.
+     * If any route was installed before the failure, the failure is reported with their ids.
+     */
+    private List<RouteDto> pipeline(Iterator<RouteDto> routes, boolean validated,
+            Function<RouteDto, CompletableFuture<RouteDto>> install) {
+        Semaphore window = new Semaphore(PIPELINE_DEPTH);
+        List<CompletableFuture<RouteDto>> results = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            while (failure.get() == null && routes.hasNext()) {
+                RouteDto route = routes.next();
+                if (!validated) {
+                    validateRoute(route);
+                }
+
+                window.acquireUninterruptibly();
+                results.add(CompletableFuture.supplyAsync(() -> install.apply(route), installer)
+                        .thenCompose(Function.identity())
+                        .whenComplete((result, error) -> {
+                            if (error != null) {
+                                failure.compareAndSet(null, error);
+                            }
+                            window.release();
+                        }));
+            }
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        // wait for the routes in flight before reporting anything
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .exceptionally(error -> null)
+                .join();
+        Throwable error = failure.get();
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            List<RouteDto> installed = results.stream()
+                    .filter(result -> !result.isCompletedExceptionally())
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList());
+            if (!installed.isEmpty()) {
+                throw new PartialInstallException(cause, installed);
+            }
+            Throwables.throwIfUnchecked(cause);
+            throw new IllegalStateException(cause);
+        }
+        return results.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    public RouteSyncDto syncRoutes(List<RouteDto> desired) throws InvalidRouteException {
+        // index the request only, the route table is scanned once without being copied
+        Map<HostPair, Integer> positions = new HashMap<>();
+        for (int i = 0; i < desired.size(); i++) {
+            RouteDto route = desired.get(i);
+            validateRoute(route);
+            if (positions.put(HostPair.of(route), i) != null) {
+                throw new InvalidRouteException("Each host pair should appear only once.");
+            }
+        }
+
+        RouteDto[] results = new RouteDto[desired.size()];
+        List<RouteDto> updates = new ArrayList<>();
+        List<Long> duplicates = new ArrayList<>();
+        List<Long> removals = new ArrayList<>();
+        int unchanged = 0;
+        for (RouteEntry entry : routes.snapshot()) {
+            Integer position = positions.get(HostPair.of(entry.route));
+            if (position == null) {
+                removals.add(entry.id);
+                continue;
+            }
+            if (results[position] != null) {
+                // a duplicate of a route already matched, its rules match the same packets
+                duplicates.add(entry.id);
+                continue;
+            }
+            RouteDto route = desired.get(position);
+            results[position] = new RouteDto(entry.id);
+            if (samePaths(entry.route, route)) {
+                unchanged++;
+            } else {
+                updates.add(new RouteDto(entry.id, route.path, route.alternatives));
+            }
+        }
+        List<Integer> additions = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                additions.add(i);
+            }
+        }
+
+        // the desired routes were validated above and are not checked again while installing;
+        // duplicates go first, their rules would otherwise be removed on top of the kept route's;
+        // the routes no longer wanted are removed only once the new paths are in, so a failed
+        // sync leaves the old table plus the routes already installed, which are reported
+        duplicates.forEach(id -> deleteRoute(new RouteDto(id)));
+        pipeline(updates.iterator(), true, this::replaceRoute);
+        List<RouteDto> ids;
+        try {
+            ids = pipeline(additions.stream().map(desired::get).iterator(), true, this::insertRoute);
+        } catch (PartialInstallException e) {
+            List<RouteDto> installed = new ArrayList<>(updates.size() + e.installed().size());
+            updates.forEach(route -> installed.add(new RouteDto(route.id)));
+            installed.addAll(e.installed());
+            throw new PartialInstallException(e.getCause(), installed);
+        } catch (RuntimeException e) {
+            if (updates.isEmpty()) {
+                throw e;
+            }
+            throw new PartialInstallException(e, updates.stream()
+                    .map(route -> new RouteDto(route.id)).collect(Collectors.toList()));
+        }
+        for (int i = 0; i < additions.size(); i++) {
+            results[additions.get(i)] = ids.get(i);
+        }
+        removals.forEach(id -> deleteRoute(new RouteDto(id)));
+
+        return new RouteSyncDto(additions.size(), updates.size(), removals.size() + duplicates.size(), unchanged,
+                Arrays.asList(results));
+    }
+
+    public RouteSyncDto provisionAllPairs() throws InvalidRouteException {
+        Map<HostId, ConnectPoint> hosts = adjacency.hosts();
+        ShortestPathTrees trees = new ShortestPathTrees(adjacency.links());
+
+        Map<HostPair, Long> existing = new HashMap<>();
+        for (RouteEntry entry : routes.snapshot()) {
+            existing.put(HostPair.of(entry.route), entry.id);
+        }
+        List<HostId> hostIds = new ArrayList<>(hosts.keySet());
+        hostIds.sort(Comparator.comparing(HostId::toString));
+
+        // the trees of the destination devices are independent, each is searched on the fork-join pool
+        // and followed from every source host that has no route to the hosts of that device yet
+        Map<DeviceId, List<HostId>> destinations = hostIds.stream()
+                .collect(Collectors.groupingBy(id -> hosts.get(id).deviceId()));
+        Map<HostPair, RouteDto> computed = destinations.entrySet().parallelStream()
+                .flatMap(destination -> {
+                    Map<DeviceId, ShortestPathTrees.Hop> tree = trees.towards(destination.getKey());
+                    List<RouteDto> paths = new ArrayList<>();
+                    for (HostId dst : destination.getValue()) {
+                        for (HostId src : hostIds) {
+                            if (src.equals(dst) || existing.containsKey(new HostPair(src.toString(), dst.toString()))) {
+                                continue;
+                            }
+                            PathDto path = ShortestPathTrees.path(src.toString(), hosts.get(src),
+                                    dst.toString(), hosts.get(dst), tree);
+                            if (path != null) {
+                                paths.add(new RouteDto(null, path));
+                            }
+                        }
+                    }
+                    return paths.stream();
+                })
+                .collect(Collectors.toMap(HostPair::of, Function.identity()));
+
+        List<RouteDto> results = new ArrayList<>();
+        List<RouteDto> additions = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        int unchanged = 0;
+        for (HostId src : hostIds) {
+            for (HostId dst : hostIds) {
+                HostPair pair = new HostPair(src.toString(), dst.toString());
+                Long id = existing.get(pair);
+                if (id != null) {
+                    results.add(new RouteDto(id));
+                    unchanged++;
+                } else if (computed.containsKey(pair)) {
+                    positions.add(results.size());
+                    results.add(null);
+                    additions.add(computed.get(pair));
+                }
+            }
+        }
+
+        // the same pipeline as a streamed batch, validated and installed while the next routes are pulled
+        List<RouteDto> ids = pipeline(additions.iterator(), false, this::insertRoute);
+        for (int i = 0; i < ids.size(); i++) {
+            results.set(positions.get(i), ids.get(i));
+        }
+        return new RouteSyncDto(additions.size(), 0, 0, unchanged, results);
+    }
+
+    public boolean hasRoute(String src, String dst) {
+        return routedPairs.containsKey(new HostPair(src, dst));
+    }
+
+    private void store(RouteEntry entry) {
+        RouteEntry previous = routes.put(entry);
+        routedPairs.merge(HostPair.of(entry.route), 1, Integer::sum);
+        if (previous != null) {
+            unindex(previous);
+        }
+    }
+
+    private RouteEntry unstore(long id) {
+        RouteEntry removed = routes.remove(id);
+        if (removed != null) {
+            unindex(removed);
+        }
+        return removed;
+    }
+
+    private void unindex(RouteEntry entry) {
+        routedPairs.computeIfPresent(HostPair.of(entry.route), (pair, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private static boolean samePaths(RouteDto a, RouteDto b) {
+        List<PathDto> alternativesA = a.isMultipath() ? a.alternatives : Collections.emptyList();
+        List<PathDto> alternativesB = b.isMultipath() ? b.alternatives : Collections.emptyList();
+        return a.path.equals(b.path) && alternativesA.equals(alternativesB);
+    }
+
+    private static final class HostPair {
+        final String src;
+        final String dst;
+
+        private HostPair(String src, String dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        static HostPair of(RouteDto route) {
+            return new HostPair(route.path.src().id, route.path.dst().id);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof HostPair)) {
+                return false;
+            }
+            HostPair that = (HostPair) obj;
+            return src.equals(that.src) && dst.equals(that.dst);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * src.hashCode() + dst.hashCode();
+        }
+    }
+
     public void clear() {
-        routeTable.clear();
-        routeToFlows.clear();
-        flowRuleService.removeFlowRulesById(appId);
+        // take every stripe in a fixed order so that no mutation is in flight while wiping the tables
+        List<Lock> locks = new ArrayList<>(routeLocks.size());
+        for (int i = 0; i < routeLocks.size(); i++) {
+            locks.add(routeLocks.getAt(i));
+        }
+        locks.forEach(Lock::lock);
+        try {
+            stateTracker.clear();
+            flowRuleService.removeFlowRulesById(appId);
+            routes.snapshot().forEach(entry -> removeGroups(entry.installation.groups));
+            sharedRules.clear();
+            routes.clear();
+            routedPairs.clear();
+            if (routeLog != null) {
+                routeLog.clear();
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
     }
 }
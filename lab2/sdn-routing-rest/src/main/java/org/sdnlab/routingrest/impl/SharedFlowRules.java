@@ -0,0 +1,181 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.sdnlab.routingrest.exception.InvalidRouteException;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Reference-counted flow rules shared by several routes.
+ * A rule is applied when its first route acquires it and removed when its last route releases it.
+ * The counts are updated under the monitor and the devices are programmed after it is released;
+ * each change carries a generation and is only pushed while it is the latest one for its rule.
+ */
+final class SharedFlowRules {
+
+    private final FlowRuleService flowRuleService;
+
+    // keyed by match (device, selector, priority, table), the value holds the installed treatment
+    private final Map<FlowRule, Entry> rules = new HashMap<>();
+
+    // guarded by this, source of the generations
+    private long generation;
+    // latest change decided for each rule, removed once a removal is pushed
+    private final Map<FlowRule, Long> generations = new ConcurrentHashMap<>();
+    // held while checking a generation and pushing it, so an older change cannot overtake a newer one
+    private final Striped<Lock> pushLocks = Striped.lock(PUSH_STRIPES);
+
+    private static final int PUSH_STRIPES = 64;
+
+    private static final class Entry {
+        FlowRule rule;
+        int references;
+
+        Entry(FlowRule rule) {
+            this.rule = rule;
+        }
+    }
+
+    SharedFlowRules(FlowRuleService flowRuleService) {
+        this.flowRuleService = flowRuleService;
+    }
+
+    /**
+     * Replaces the rules held by a route with a new set of rules.
+     * Either every new rule is acquired or the registry is left untouched.
+     *
+     * @param oldFlows rules currently held by the route, empty for a new route
+     * @param newFlows rules the route needs from now on, empty to release the route
+     * @throws InvalidRouteException a rule with the same match but another treatment is used by other routes
+     */
+    void replace(Collection<FlowRule> oldFlows, Collection<FlowRule> newFlows) throws InvalidRouteException {
+        Set<FlowRule> released = new HashSet<>(oldFlows);
+        Set<FlowRule> acquired = new HashSet<>(newFlows);
+        Map<FlowRule, Long> added = new HashMap<>();
+        Map<FlowRule, Long> removed = new HashMap<>();
+        synchronized (this) {
+            count(released, acquired, added, removed);
+        }
+        push(added, true);
+        push(removed, false);
+    }
+
+    private void count(Set<FlowRule> released, Set<FlowRule> acquired, Map<FlowRule, Long> added,
+            Map<FlowRule, Long> removed) throws InvalidRouteException {
+        for (FlowRule flow : acquired) {
+            Entry entry = rules.get(flow);
+            // the treatment may only change if the route being replaced is the sole user of the rule
+            if (entry != null && !entry.rule.treatment().equals(flow.treatment())
+                    && !(entry.references == 1 && released.contains(flow))) {
+                throw new InvalidRouteException("The route conflicts with an installed route on device "
+                        + flow.deviceId() + ".");
+            }
+        }
+
+        for (FlowRule flow : acquired) {
+            Entry entry = rules.get(flow);
+            if (entry == null) {
+                entry = new Entry(flow);
+                rules.put(flow, entry);
+                added.put(flow, stamp(flow));
+            } else if (!entry.rule.treatment().equals(flow.treatment())) {
+                entry.rule = flow;
+                added.put(flow, stamp(flow));
+            }
+            entry.references++;
+        }
+
+        for (FlowRule flow : released) {
+            Entry entry = rules.get(flow);
+            if (entry != null && --entry.references == 0) {
+                rules.remove(flow);
+                removed.put(entry.rule, stamp(flow));
+            }
+        }
+    }
+
+    private long stamp(FlowRule flow) {
+        long stamp = ++generation;
+        generations.put(flow, stamp);
+        return stamp;
+    }
+
+    private void push(Map<FlowRule, Long> changes, boolean apply) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Iterable<Lock> locks = pushLocks.bulkGet(changes.keySet());
+        locks.forEach(Lock::lock);
+        try {
+            // a newer change of the same rule was decided meanwhile, it will be pushed by its own caller
+            List<FlowRule> latest = new ArrayList<>();
+            changes.forEach((flow, stamp) -> {
+                if (stamp.equals(generations.get(flow))) {
+                    latest.add(flow);
+                }
+            });
+            if (latest.isEmpty()) {
+                return;
+            }
+            if (apply) {
+                flowRuleService.applyFlowRules(latest.toArray(new FlowRule[0]));
+            } else {
+                flowRuleService.removeFlowRules(latest.toArray(new FlowRule[0]));
+                latest.forEach(flow -> generations.remove(flow, changes.get(flow)));
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * Registers the rules of a route without touching the devices, used when rebuilding
+     * the registry from persisted routes.
+     *
+     * @param flows rules of a route
+     * @throws InvalidRouteException a rule with the same match but another treatment is registered
+     */
+    synchronized void restore(Collection<FlowRule> flows) throws InvalidRouteException {
+        Set<FlowRule> acquired = new HashSet<>(flows);
+        for (FlowRule flow : acquired) {
+            Entry entry = rules.get(flow);
+            if (entry != null && !entry.rule.treatment().equals(flow.treatment())) {
+                throw new InvalidRouteException("The route conflicts with a restored route on device "
+                        + flow.deviceId() + ".");
+            }
+        }
+        for (FlowRule flow : acquired) {
+            rules.computeIfAbsent(flow, Entry::new).references++;
+        }
+    }
+
+    /**
+     * Gets the registered rules.
+     *
+     * @return shared rules with their current treatment
+     */
+    synchronized Set<FlowRule> rules() {
+        Set<FlowRule> flows = new HashSet<>();
+        rules.values().forEach(entry -> flows.add(entry.rule));
+        return flows;
+    }
+
+    /**
+     * Forgets every shared rule without touching the devices.
+     */
+    synchronized void clear() {
+        rules.clear();
+        generations.clear();
+    }
+}
@@ -0,0 +1,95 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.sdnlab.routingrest.data.ConnectPointDto;
+import org.sdnlab.routingrest.data.PathDto;
+
+/**
+ * Hop-count shortest path trees over a snapshot of the links, one tree per destination device.
+ * The snapshot is read-only, trees of several destinations can be computed in parallel.
+ */
+final class ShortestPathTrees {
+
+    // link from a device towards the next one
+    static final class Hop {
+        final ConnectPoint egress;
+        final ConnectPoint ingress;
+
+        Hop(ConnectPoint egress, ConnectPoint ingress) {
+            this.egress = egress;
+            this.ingress = ingress;
+        }
+    }
+
+    private static final Comparator<Hop> HOP_ORDER = Comparator.comparing(hop -> hop.egress.toString());
+
+    // links arriving at each device, ordered so equal-cost choices are the same on every run
+    private final Map<DeviceId, List<Hop>> incoming = new HashMap<>();
+
+    /**
+     * @param links source of each link to its destination
+     */
+    ShortestPathTrees(Map<ConnectPoint, ConnectPoint> links) {
+        links.forEach((src, dst) -> incoming.computeIfAbsent(dst.deviceId(), k -> new ArrayList<>())
+                .add(new Hop(src, dst)));
+        incoming.values().forEach(hops -> hops.sort(HOP_ORDER));
+    }
+
+    /**
+     * Breadth-first search from the destination over the reversed links.
+     *
+     * @param dst destination device
+     * @return next hop of every device that reaches the destination, the destination itself excluded
+     */
+    Map<DeviceId, Hop> towards(DeviceId dst) {
+        Map<DeviceId, Hop> next = new HashMap<>();
+        Deque<DeviceId> frontier = new ArrayDeque<>();
+        frontier.add(dst);
+        while (!frontier.isEmpty()) {
+            DeviceId device = frontier.poll();
+            for (Hop hop : incoming.getOrDefault(device, Collections.emptyList())) {
+                DeviceId previous = hop.egress.deviceId();
+                if (!previous.equals(dst) && !next.containsKey(previous)) {
+                    next.put(previous, hop);
+                    frontier.add(previous);
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Follows a tree from the source host to the destination host.
+     *
+     * @return path from host to host, or null if the source does not reach the destination
+     */
+    static PathDto path(String src, ConnectPoint srcLocation, String dst, ConnectPoint dstLocation,
+            Map<DeviceId, Hop> tree) {
+        List<ConnectPointDto> points = new ArrayList<>();
+        points.add(new ConnectPointDto(src, null));
+        points.add(new ConnectPointDto(srcLocation));
+        DeviceId device = srcLocation.deviceId();
+        while (!device.equals(dstLocation.deviceId())) {
+            Hop hop = tree.get(device);
+            if (hop == null) {
+                return null;
+            }
+            points.add(new ConnectPointDto(hop.egress));
+            points.add(new ConnectPointDto(hop.ingress));
+            device = hop.ingress.deviceId();
+        }
+        points.add(new ConnectPointDto(dstLocation));
+        points.add(new ConnectPointDto(dst, null));
+        return new PathDto(points);
+    }
+}
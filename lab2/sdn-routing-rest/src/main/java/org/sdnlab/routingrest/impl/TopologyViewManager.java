@@ -0,0 +1,291 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.link.LinkEvent;
+import org.onosproject.net.link.LinkListener;
+import org.onosproject.net.link.LinkService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.sdnlab.routingrest.TopologyView;
+import org.sdnlab.routingrest.TopologyViewService;
+import org.sdnlab.routingrest.data.DeviceDto;
+import org.sdnlab.routingrest.data.HostDto;
+import org.sdnlab.routingrest.data.LinkDto;
+import org.sdnlab.routingrest.data.TopologyChangeDto;
+import org.sdnlab.routingrest.data.TopologyChangesDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Keeps the topology served by the REST api, updated element by element from the
+ * device, link and host events instead of being rebuilt on every request.
+ */
+@Component(immediate = true)
+public class TopologyViewManager implements TopologyViewService {
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected LinkService linkService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected HostService hostService;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    // number of changes kept for incremental reads, must be a power of two
+    private static final int CHANGE_LOG_SIZE = 4096;
+
+    private final ObjectWriter writer = new ObjectMapper().writer();
+
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+    private final LinkListener linkListener = new InternalLinkListener();
+    private final HostListener hostListener = new InternalHostListener();
+
+    // guarded by this
+    private final Map<LinkKey, Element<LinkDto>> links = new LinkedHashMap<>();
+    private final Map<DeviceId, Element<DeviceDto>> devices = new LinkedHashMap<>();
+    private final Map<HostId, Element<HostDto>> hosts = new LinkedHashMap<>();
+    private long version = System.currentTimeMillis() << 10;
+    // every version bump records one change, the change to version v is at v & (CHANGE_LOG_SIZE - 1)
+    private final Change[] changes = new Change[CHANGE_LOG_SIZE];
+    private int changeCount;
+    // keys changed by an event while the initial load runs, the load must not overwrite them
+    private Set<Object> touched;
+
+    // rebuilt lazily by the first reader after a change
+    private volatile TopologyView view;
+
+    private static final class Element<T> {
+        final T dto;
+        final byte[] json;
+
+        Element(T dto, byte[] json) {
+            this.dto = dto;
+            this.json = json;
+        }
+    }
+
+    private static final class Change {
+        // map key of the element, distinct between the element kinds
+        final Object key;
+        final TopologyChangeDto dto;
+
+        Change(Object key, TopologyChangeDto dto) {
+            this.key = key;
+            this.dto = dto;
+        }
+    }
+
+    @Activate
+    protected void activate() {
+        // listen first so no change is missed while loading; an element an event has already
+        // put or removed is newer than the snapshot read here and is skipped by the load
+        synchronized (this) {
+            touched = new HashSet<>();
+        }
+        deviceService.addListener(deviceListener);
+        linkService.addListener(linkListener);
+        hostService.addListener(hostListener);
+
+        for (Device device : deviceService.getDevices()) {
+            put(devices, device.id(), new DeviceDto(device), true);
+        }
+        for (Link link : linkService.getLinks()) {
+            put(links, LinkKey.linkKey(link), new LinkDto(link), true);
+        }
+        for (Host host : hostService.getHosts()) {
+            put(hosts, host.id(), new HostDto(host), true);
+        }
+        synchronized (this) {
+            touched = null;
+        }
+        log.info("TopologyViewManager Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        hostService.removeListener(hostListener);
+        linkService.removeListener(linkListener);
+        deviceService.removeListener(deviceListener);
+        log.info("TopologyViewManager Stopped");
+    }
+
+    @Override
+    public TopologyView getView() {
+        TopologyView current = view;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (view == null) {
+                view = buildView();
+            }
+            return view;
+        }
+    }
+
+    @Override
+    public synchronized TopologyChangesDto getChanges(long since) {
+        if (since > version || version - since > changeCount) {
+            return null;
+        }
+        // keep the latest change per element, ordered by that change
+        Map<Object, TopologyChangeDto> latest = new LinkedHashMap<>();
+        for (long v = since + 1; v <= version; v++) {
+            Change change = changes[(int) v & (CHANGE_LOG_SIZE - 1)];
+            latest.remove(change.key);
+            latest.put(change.key, change.dto);
+        }
+        return new TopologyChangesDto(version, new ArrayList<>(latest.values()));
+    }
+
+    private TopologyView buildView() {
+        List<LinkDto> linkDtos = new ArrayList<>(links.size());
+        List<byte[]> linkJson = new ArrayList<>(links.size());
+        for (Element<LinkDto> element : links.values()) {
+            linkDtos.add(element.dto);
+            linkJson.add(element.json);
+        }
+        List<DeviceDto> deviceDtos = new ArrayList<>(devices.size());
+        List<byte[]> deviceJson = new ArrayList<>(devices.size());
+        for (Element<DeviceDto> element : devices.values()) {
+            deviceDtos.add(element.dto);
+            deviceJson.add(element.json);
+        }
+        List<HostDto> hostDtos = new ArrayList<>(hosts.size());
+        List<byte[]> hostJson = new ArrayList<>(hosts.size());
+        for (Element<HostDto> element : hosts.values()) {
+            hostDtos.add(element.dto);
+            hostJson.add(element.json);
+        }
+        return new TopologyView(version, linkDtos, linkJson, deviceDtos, deviceJson, hostDtos, hostJson);
+    }
+
+    private <K, T> void put(Map<K, Element<T>> elements, K key, T dto, boolean loaded) {
+        byte[] json;
+        try {
+            json = writer.writeValueAsBytes(dto);
+        } catch (JsonProcessingException e) {
+            log.error("Error occurred in converting {} to json.", key, e);
+            return;
+        }
+        synchronized (this) {
+            if (touched != null) {
+                if (loaded && touched.contains(key)) {
+                    // an event got there first, the loaded snapshot of the element is older
+                    return;
+                } else if (!loaded) {
+                    touched.add(key);
+                }
+            }
+            Element<T> old = elements.get(key);
+            // events that do not change the serialized element keep the version and the cached view
+            if (old != null && Arrays.equals(old.json, json)) {
+                return;
+            }
+            elements.put(key, new Element<>(dto, json));
+            changed(key, TopologyChangeDto.Type.PUT, dto);
+        }
+    }
+
+    private synchronized <K, T> void remove(Map<K, Element<T>> elements, K key) {
+        if (touched != null) {
+            touched.add(key);
+        }
+        Element<T> old = elements.remove(key);
+        if (old != null) {
+            changed(key, TopologyChangeDto.Type.REMOVE, old.dto);
+        }
+    }
+
+    private void changed(Object key, TopologyChangeDto.Type type, Object element) {
+        version++;
+        view = null;
+
+        TopologyChangeDto dto = new TopologyChangeDto(type,
+                element instanceof LinkDto ? (LinkDto) element : null,
+                element instanceof DeviceDto ? (DeviceDto) element : null,
+                element instanceof HostDto ? (HostDto) element : null);
+        changes[(int) version & (CHANGE_LOG_SIZE - 1)] = new Change(key, dto);
+        changeCount = Math.min(changeCount + 1, CHANGE_LOG_SIZE);
+    }
+
+    private void putDevice(Device device) {
+        put(devices, device.id(), new DeviceDto(device), false);
+    }
+
+    private void putLink(Link link) {
+        put(links, LinkKey.linkKey(link), new LinkDto(link), false);
+    }
+
+    private void putHost(Host host) {
+        put(hosts, host.id(), new HostDto(host), false);
+    }
+
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public void event(DeviceEvent event) {
+            if (event.type() == DeviceEvent.Type.DEVICE_REMOVED) {
+                remove(devices, event.subject().id());
+            } else {
+                putDevice(event.subject());
+            }
+        }
+
+        @Override
+        public boolean isRelevant(DeviceEvent event) {
+            // port events do not change the device element
+            return event.type().name().startsWith("DEVICE_");
+        }
+    }
+
+    private class InternalLinkListener implements LinkListener {
+        @Override
+        public void event(LinkEvent event) {
+            if (event.type() == LinkEvent.Type.LINK_REMOVED) {
+                remove(links, LinkKey.linkKey(event.subject()));
+            } else {
+                putLink(event.subject());
+            }
+        }
+    }
+
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            if (event.type() == HostEvent.Type.HOST_REMOVED) {
+                remove(hosts, event.subject().id());
+            } else {
+                putHost(event.subject());
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.sdnlab.routingrest.impl;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sdnlab.routingrest.data.ConnectPointDto;
+import org.sdnlab.routingrest.data.PathDto;
+import org.sdnlab.routingrest.data.RouteDto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the on-disk route log.
+ */
+public class RouteLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private RouteLog routeLog;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "routes.log");
+        routeLog = new RouteLog(file);
+        assertTrue(routeLog.open().isEmpty());
+    }
+
+    @After
+    public void tearDown() {
+        routeLog.close();
+    }
+
+    private static PathDto path(String src, long... ports) {
+        List<ConnectPointDto> points = new ArrayList<>();
+        points.add(new ConnectPointDto(src, null));
+        for (int i = 0; i < ports.length; i += 2) {
+            String device = "of:000000000000000" + (i / 2 + 1);
+            points.add(new ConnectPointDto(device, ports[i]));
+            points.add(new ConnectPointDto(device, ports[i + 1]));
+        }
+        points.add(new ConnectPointDto("00:00:00:00:00:02/None", null));
+        return new PathDto(points);
+    }
+
+    private static RouteDto route(long id) {
+        return new RouteDto(id, path("00:00:00:00:00:01/None", 1, 2));
+    }
+
+    private Map<Long, RouteLog.Entry> reopen() throws IOException {
+        routeLog.close();
+        routeLog = new RouteLog(file);
+        return routeLog.open();
+    }
+
+    private void append(byte type, long id, int... bytes) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeByte(type);
+            out.writeLong(id);
+            for (int b : bytes) {
+                out.writeByte(b);
+            }
+        }
+    }
+
+    private static void assertRoute(RouteDto expected, RouteCompilation compilation, RouteLog.Entry actual) {
+        assertEquals(expected.id, actual.route.id);
+        assertEquals(expected.path, actual.route.path);
+        List<PathDto> alternatives = expected.isMultipath() ? expected.alternatives : Collections.emptyList();
+        assertEquals(alternatives, actual.route.alternatives);
+        assertEquals(compilation, actual.compilation);
+    }
+
+    @Test
+    public void replaysPutAndDeleteRecords() throws IOException {
+        RouteDto multipath = new RouteDto(2L, path("00:00:00:00:00:03/None", 1, 2),
+                Arrays.asList(path("00:00:00:00:00:03/None", 1, 3, 4, 2)));
+        routeLog.put(route(1), RouteCompilation.PER_ROUTE);
+        routeLog.put(route(2), RouteCompilation.PER_ROUTE);
+        routeLog.put(route(3), RouteCompilation.DESTINATION);
+        routeLog.delete(1);
+        routeLog.put(multipath, RouteCompilation.MPLS);
+
+        Map<Long, RouteLog.Entry> routes = reopen();
+
+        assertEquals(Arrays.asList(2L, 3L), new ArrayList<>(routes.keySet()));
+        assertRoute(multipath, RouteCompilation.MPLS, routes.get(2L));
+        assertRoute(route(3), RouteCompilation.DESTINATION, routes.get(3L));
+    }
+
+    @Test
+    public void truncatesTornTail() throws IOException {
+        routeLog.put(route(1), RouteCompilation.PER_ROUTE);
+        routeLog.close();
+        long valid = file.length();
+        routeLog.open();
+        routeLog.put(route(2), RouteCompilation.PER_ROUTE);
+        routeLog.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 5);
+        }
+
+        Map<Long, RouteLog.Entry> routes = reopen();
+
+        assertEquals(Collections.singleton(1L), routes.keySet());
+        assertEquals(valid, file.length());
+
+        // records appended after the cut are read back
+        routeLog.put(route(3), RouteCompilation.MPLS);
+        routes = reopen();
+        assertEquals(Arrays.asList(1L, 3L), new ArrayList<>(routes.keySet()));
+        assertRoute(route(3), RouteCompilation.MPLS, routes.get(3L));
+    }
+
+    @Test
+    public void truncatesRecordOfUnknownType() throws IOException {
+        routeLog.put(route(1), RouteCompilation.PER_ROUTE);
+        routeLog.close();
+        long valid = file.length();
+        append((byte) 7, 2);
+        routeLog = new RouteLog(file);
+        routeLog.open();
+        routeLog.close();
+        assertEquals(valid, file.length());
+
+        append((byte) 2, 1);
+        Map<Long, RouteLog.Entry> routes = reopen();
+        assertTrue(routes.isEmpty());
+    }
+
+    @Test
+    public void truncatesRecordOfUnknownCompilation() throws IOException {
+        routeLog.put(route(1), RouteCompilation.PER_ROUTE);
+        routeLog.close();
+        long valid = file.length();
+        append((byte) 1, 2, 200);
+
+        Map<Long, RouteLog.Entry> routes = reopen();
+
+        assertEquals(Collections.singleton(1L), routes.keySet());
+        assertEquals(valid, file.length());
+    }
+
+    @Test
+    public void compactsAndReopens() throws IOException {
+        RouteDto live = route(1);
+        for (int i = 0; i < 2000; i++) {
+            routeLog.put(live, RouteCompilation.PER_ROUTE);
+            routeLog.put(route(2), RouteCompilation.DESTINATION);
+            routeLog.delete(2);
+        }
+        assertTrue(routeLog.needsCompaction(1));
+        long before = file.length();
+
+        Collection<RouteLog.Entry> snapshot =
+                Collections.singletonList(new RouteLog.Entry(live, RouteCompilation.MPLS));
+        routeLog.compact(() -> snapshot);
+
+        assertFalse(routeLog.needsCompaction(1));
+        assertTrue(file.length() < before);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // the log stays open for appending after the rewrite
+        routeLog.put(route(4), RouteCompilation.PER_ROUTE);
+        Map<Long, RouteLog.Entry> routes = reopen();
+        assertEquals(Arrays.asList(1L, 4L), new ArrayList<>(routes.keySet()));
+        assertRoute(live, RouteCompilation.MPLS, routes.get(1L));
+        assertRoute(route(4), RouteCompilation.PER_ROUTE, routes.get(4L));
+    }
+}
@@ -0,0 +1,139 @@
+package org.sdnlab.routingrest.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the segmented open-addressing route table.
+ */
+public class RouteStoreTest {
+
+    private RouteStore store;
+
+    @Before
+    public void setUp() {
+        store = new RouteStore();
+    }
+
+    private static RouteEntry entry(long id) {
+        return new RouteEntry(id, null, null);
+    }
+
+    /**
+     * Finds ids placed in the same segment and the same slot for every capacity up to 16,
+     * so they form one probe chain until the segment grows past 16 slots.
+     */
+    private static List<Long> collidingIds(int count) {
+        Map<Long, List<Long>> buckets = new HashMap<>();
+        for (long id = 1; ; id++) {
+            long hash = RouteStore.mix(id);
+            long bucket = ((long) RouteStore.segment(hash) << 4) | RouteStore.slot(hash, 15);
+            List<Long> ids = buckets.computeIfAbsent(bucket, k -> new ArrayList<>());
+            ids.add(id);
+            if (ids.size() == count) {
+                return ids;
+            }
+        }
+    }
+
+    @Test
+    public void putGetRemoveWithCollidingKeys() {
+        List<Long> ids = collidingIds(4);
+        for (long id : ids) {
+            assertNull(store.put(entry(id)));
+        }
+        assertEquals(4, store.snapshot().size());
+        for (long id : ids) {
+            assertEquals(id, store.get(id).id);
+        }
+
+        RouteEntry replacement = entry(ids.get(2));
+        RouteEntry previous = store.put(replacement);
+        assertEquals((long) ids.get(2), previous.id);
+        assertSame(replacement, store.get(ids.get(2)));
+        assertEquals(4, store.snapshot().size());
+
+        for (long id : ids) {
+            assertEquals(id, store.remove(id).id);
+            assertNull(store.get(id));
+        }
+        assertEquals(0, store.snapshot().size());
+    }
+
+    @Test
+    public void removeInTheMiddleOfProbeChain() {
+        List<Long> ids = collidingIds(4);
+        ids.forEach(id -> store.put(entry(id)));
+
+        // the entries after the removed one must be shifted back to stay reachable
+        assertEquals((long) ids.get(1), store.remove(ids.get(1)).id);
+        assertNull(store.get(ids.get(1)));
+        assertEquals((long) ids.get(0), store.get(ids.get(0)).id);
+        assertEquals((long) ids.get(2), store.get(ids.get(2)).id);
+        assertEquals((long) ids.get(3), store.get(ids.get(3)).id);
+        assertNull(store.remove(ids.get(1)));
+        assertEquals(3, store.snapshot().size());
+
+        store.put(entry(ids.get(1)));
+        for (long id : ids) {
+            assertEquals(id, store.get(id).id);
+        }
+        assertEquals(4, store.snapshot().size());
+    }
+
+    @Test
+    public void growsAndShrinksWithManyRoutes() {
+        int count = 20_000;
+        for (long id = 1; id <= count; id++) {
+            store.put(entry(id));
+        }
+        assertEquals(count, store.snapshot().size());
+        for (long id = 1; id <= count; id++) {
+            assertEquals(id, store.get(id).id);
+        }
+
+        for (long id = 1; id <= count; id += 2) {
+            assertEquals(id, store.remove(id).id);
+        }
+        Set<Long> iterated = new HashSet<>();
+        for (RouteEntry entry : store.snapshot()) {
+            assertFalse(entry.id % 2 == 1);
+            iterated.add(entry.id);
+        }
+        assertEquals(count / 2, iterated.size());
+        assertEquals(count / 2, store.snapshot().size());
+        for (long id = 1; id <= count; id++) {
+            if (id % 2 == 1) {
+                assertNull(store.get(id));
+            } else {
+                assertEquals(id, store.get(id).id);
+            }
+        }
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterMutations() {
+        store.put(entry(1));
+        RouteStore.Snapshot before = store.snapshot();
+        store.put(entry(2));
+        store.remove(1);
+
+        assertEquals(1, before.size());
+        assertEquals(1, before.get(1).id);
+        assertNull(before.get(2));
+        assertNull(store.get(1));
+        assertEquals(2, store.get(2).id);
+    }
+}
@@ -1,6 +1,6 @@
 import json
 import logging
-from typing import AsyncGenerator, List, Tuple
+from typing import AsyncGenerator, List, Optional, Tuple, Union
 from urllib.parse import urljoin
 import aiohttp
 
@@ -12,12 +12,25 @@ def __init__(self, base_url: str, username: str, password: str):
         self.base_url = base_url
         self.auth = aiohttp.BasicAuth(username, password)
         self.logger = logging.getLogger(__name__)
+        # id of the last received event, lets a reconnect resume where it stopped
+        self.last_event_id: Optional[str] = None
 
     # TODO: Convert json to dto
-    async def listen_events(self) -> AsyncGenerator[Tuple[str, dict], None]:
+    async def listen_events(
+        self, window: int = 0
+    ) -> AsyncGenerator[Tuple[str, dict], None]:
+        url = urljoin(self.base_url, "events")
+        if window > 0:
+            # coalesce the events into a "batch" event every window milliseconds
+            url = f"{url}?window={window}"
         async for event in aiosseclient(
-            urljoin(self.base_url, "events"), auth=self.auth, raise_for_status=True
+            url,
+            last_id=self.last_event_id,
+            auth=self.auth,
+            raise_for_status=True,
         ):
+            if event.id:
+                self.last_event_id = event.id
             yield event.event, json.loads(event.data)
 
     # TODO: Convert json to dto
@@ -28,6 +41,26 @@ async def get_topology(self) -> dict:
             async with session.get(urljoin(self.base_url, "topology")) as resp:
                 return await resp.json()
 
+    # TODO: Convert json to dto
+    async def get_topology_changes(self, since: str) -> dict:
+        async with aiohttp.ClientSession(
+            auth=self.auth, raise_for_status=True
+        ) as session:
+            async with session.get(
+                urljoin(self.base_url, "topology/changes"), params={"since": since}
+            ) as resp:
+                return await resp.json()
+
+    async def get_path(self, src: str, dst: str) -> dict:
+        # path over the least loaded links, computed by the controller
+        async with aiohttp.ClientSession(
+            auth=self.auth, raise_for_status=True
+        ) as session:
+            async with session.get(
+                urljoin(self.base_url, "paths"), params={"src": src, "dst": dst}
+            ) as resp:
+                return await resp.json()
+
     async def get_routes(self) -> List[dict]:
         async with aiohttp.ClientSession(
             auth=self.auth, raise_for_status=True
@@ -35,6 +68,17 @@ async def get_routes(self) -> List[dict]:
             async with session.get(urljoin(self.base_url, "routes")) as resp:
                 return await resp.json()
 
+    async def get_route_stats(
+        self, route_id: Optional[int] = None
+    ) -> Union[List[dict], dict]:
+        # all routes without samples, or one route with its recent rates
+        path = "routes/stats" if route_id is None else f"routes/{route_id}/stats"
+        async with aiohttp.ClientSession(
+            auth=self.auth, raise_for_status=True
+        ) as session:
+            async with session.get(urljoin(self.base_url, path)) as resp:
+                return await resp.json()
+
     async def add_routes(self, routes: List[dict]) -> List[dict]:
         async with aiohttp.ClientSession(
             auth=self.auth, raise_for_status=True
@@ -62,6 +106,25 @@ async def delete_routes(self, routes: List[dict]) -> None:
             ) as resp:
                 pass
 
+    async def sync_routes(self, routes: List[dict]) -> dict:
+        async with aiohttp.ClientSession(
+            auth=self.auth, raise_for_status=True
+        ) as session:
+            async with session.put(
+                urljoin(self.base_url, "routes/sync"), json=routes
+            ) as resp:
+                return await resp.json()
+
+    async def provision_all_pairs(self) -> dict:
+        # routes for every host pair without one, along shortest paths computed by the controller
+        async with aiohttp.ClientSession(
+            auth=self.auth, raise_for_status=True
+        ) as session:
+            async with session.post(
+                urljoin(self.base_url, "routes/mesh"), data=""
+            ) as resp:
+                return await resp.json()
+
     async def clear_routes(self) -> None:
         async with aiohttp.ClientSession(
             auth=self.auth, raise_for_status=True
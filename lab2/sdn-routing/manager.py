@@ -274,10 +274,6 @@ async def setup(self, net: nx.DiGraph, host_ids: List[str]):
         event_loop = asyncio.get_event_loop()
         self.route_queue = asyncio.Queue(loop=event_loop)
 
-        # if there is no host in network, clear all routes for consistence
-        if len(host_ids) == 0:
-            await self.api_client.clear_routes()
-
         # create pairs
         hosts = [ConnectPoint(host_id) for host_id in host_ids]
         for src, dst in combinations(hosts, 2):
@@ -289,29 +285,46 @@ async def setup(self, net: nx.DiGraph, host_ids: List[str]):
             self.routes.setdefault(dst, {})
             self.routes[dst].setdefault(src)
 
-        # fetch routes
+        # fetch routes, keep those still on the topology between known hosts
         raw_routes = await self.api_client.get_routes()
-        routes = [Route.from_api(raw_route) for raw_route in raw_routes]
-
-        for route in routes:
+        for raw_route in raw_routes:
+            route = Route.from_api(raw_route)
             src, dst = route.src, route.dst
-            devices = route.devices
+            if (
+                src in self.routes
+                and dst in self.routes[src]
+                and self.routes[src][dst] is None
+                and nx.is_simple_path(net, route.path_ids)
+            ):
+                self.routes[src][dst] = route
+
+        # find the shortest path of the missing pairs
+        for src, dst in list(self.missings):
+            path = self._find_path(net, src.id, dst.id)
+            if path is not None:
+                self.routes[src][dst] = Route.from_path(net, path)
+
+        # one request applies the difference: stale routes are removed, missing ones added
+        desired = [
+            route for src_routes in self.routes.values() for route in src_routes.values()
+            if route is not None
+        ]
+        content = [dataclasses.replace(route, id=None).as_dict() for route in desired]
+        result = await self.api_client.sync_routes(content)
+        print(
+            "Route (Sync): added", result["added"], "removed", result["removed"],
+            "unchanged", result["unchanged"],
+        )
 
-            # TODO: don't store and delete directly if it is not a path
-            # store in route table
-            self.routes.setdefault(src, {})
-            self.routes[src].setdefault(dst)
-            self.routes[src][dst] = route
+        # update local table
+        for route, raw_route in zip(desired, result["routes"]):
+            route = dataclasses.replace(route, id=raw_route["id"])
+            devices = route.devices
+            self.routes[route.src][route.dst] = route
             for src_device, dst_device in zip(devices[:-1], devices[1:]):
-                self.link_to_routes[src_device][dst_device].add((src, dst))
-
-            # sync with topology
-            if not nx.is_simple_path(net, route.path_ids):
-                self._remove_route(net, src, dst, update_after_remove=False)
-                del self.routes[src]
+                self.link_to_routes[src_device][dst_device].add((route.src, route.dst))
 
         self.is_setup = True
-        self.update_missing_routes(net)
 
     async def run(self):
         self._pre_check()
@@ -52,6 +52,8 @@ def __init__(self, api_client: API, debug: bool = False):
             topology=self._handle_topology_event,
             device=self._handle_device_event,
             host=self._handle_host_event,
+            route=self._handle_route_event,
+            batch=self._handle_batch_event,
         )
         self.print = print if debug else lambda *args, **kwargs: None
         self.debug = debug
@@ -105,6 +107,19 @@ def _handle_host_event(self, data: dict):
         elif event_type == "HOST_REMOVED":
             self._remove_host(host)
 
+    def _handle_route_event(self, data: dict):
+        # installation state of a route, only reported for now
+        self.print(f"Route {data['id']}: {data['state']}")
+
+    def _handle_batch_event(self, data: list):
+        # coalesced events, the latest one of each device, link and host
+        for item in data:
+            handler = self.handlers.get(item["event"])
+            if handler is not None:
+                handler(item["data"])
+            else:
+                raise NotImplementedError(f"Receive unknown event, {item['event']}.")
+
     async def _listen_events(self, queue: asyncio.Queue):
         async for event, data in self.api_client.listen_events():
             queue.put_nowait((event, data))